@@ -0,0 +1,69 @@
+package com.example.queuectl.bench;
+
+import com.example.queuectl.Job;
+import com.example.queuectl.JobStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Temp-directory databases for the benchmarks. Seeding a million rows takes tens of seconds
+ * and ten million several minutes, so each history size is built once into a template under
+ * java.io.tmpdir and copied per trial.
+ */
+final class BenchDb {
+    private static final int CHUNK = 10_000;
+
+    private BenchDb() {
+    }
+
+    /** A fresh directory holding queue.db with {@code history} completed jobs. */
+    static Path create(int history) throws IOException, SQLException {
+        Path dir = Files.createTempDirectory("queuectl-bench");
+        Path template = Paths.get(System.getProperty("java.io.tmpdir"), "queuectl-bench-template-" + history + ".db");
+        if (!Files.exists(template)) {
+            Path building = Files.createTempFile(template.getParent(), "queuectl-bench-template", ".tmp");
+            Files.delete(building);
+            JobStore store = new JobStore(building.toString());
+            seed(store, "hist-", history, "completed", "true");
+            store.close();
+            // the store checkpoints on close, so the main file is complete on its own
+            Files.move(building, template, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.copy(template, dir.resolve("queue.db"));
+        return dir;
+    }
+
+    static String dbPath(Path dir) {
+        return dir.resolve("queue.db").toString();
+    }
+
+    /** Inserts {@code n} jobs with ids prefix0..prefix(n-1) in batched transactions. */
+    static void seed(JobStore store, String prefix, int n, String state, String command) throws SQLException {
+        long now = Job.nowMillis();
+        List<Job> chunk = new ArrayList<>(CHUNK);
+        for (int i = 0; i < n; i++) {
+            chunk.add(new Job(prefix + i, command, state, "completed".equals(state) ? 1 : 0, 3, now, now, now, null));
+            if (chunk.size() == CHUNK) {
+                store.insertJobs(chunk);
+                chunk.clear();
+            }
+        }
+        store.insertJobs(chunk);
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) Files.delete(p);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.queuectl.bench;
+
+import com.example.queuectl.Job;
+import com.example.queuectl.JobStore;
+import com.example.queuectl.QueueScheduler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The JobStore calls a worker makes per job, against a temp database holding {@code history}
+ * completed rows plus a pending backlog. Throughput mode gives ops/ms; SampleTime gives the
+ * latency distribution including p0.99. Claims go through a {@link QueueScheduler} shared by
+ * all threads, as a worker process's do. Thread count comes from JMH's -t option, e.g.
+ *
+ *   java -jar target/benchmarks.jar JobStoreBenchmark -t 4 -p history=1000000
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class JobStoreBenchmark {
+    /** Completed rows already in the table; the 10M template takes several minutes to build the first time. */
+    @Param({"10000", "1000000", "10000000"})
+    public int history;
+
+    /** Pending jobs available to claim, topped up before every iteration. */
+    @Param({"20000"})
+    public int backlog;
+
+    /** per_job commits each mark* call; batch routes them through the group committer. */
+    @Param({"per_job", "batch"})
+    public String commitMode;
+
+    /**
+     * Jobs per claim, like claim_batch_size. Each claim benchmark op still finishes one job,
+     * taking it from the thread's last batch and claiming again when that runs out.
+     */
+    @Param({"1", "16", "64"})
+    public int claimBatch;
+
+    /** PRAGMA synchronous for the pool: normal, or full to fsync every commit. */
+    @Param({"normal"})
+    public String sync;
+
+    private Path dir;
+    private JobStore store;
+    private QueueScheduler queues;
+    private final AtomicLong ids = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class Claimer {
+        String workerId;
+        final Deque<Job> batch = new ArrayDeque<>();
+
+        @Setup
+        public void setup(ThreadParams t) {
+            workerId = "bench-" + t.getThreadIndex();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void open(BenchmarkParams params) throws Exception {
+        dir = BenchDb.create(history);
+        store = new JobStore(BenchDb.dbPath(dir));
+        store.ensurePoolSize(params.getThreads() + 1);
+        store.setSynchronous(sync);
+        if ("batch".equals(commitMode)) store.startGroupCommit(256, 2);
+        queues = new QueueScheduler(store, null);
+    }
+
+    @Setup(Level.Iteration)
+    public void topUp() throws Exception {
+        long pending = store.countByState().getOrDefault("pending", 0L);
+        if (pending < backlog) {
+            BenchDb.seed(store, "backlog-" + ids.incrementAndGet() + "-", (int) (backlog - pending), "pending", "true");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        store.stopGroupCommit();
+        store.close();
+        BenchDb.delete(dir);
+    }
+
+    @Benchmark
+    public boolean enqueue() throws Exception {
+        long now = Job.nowMillis();
+        return store.insertJob(new Job("enq-" + ids.incrementAndGet(), "true", "pending", 0, 3, now, now, now, null));
+    }
+
+    /** Completion alone, rewriting history rows round-robin: the cost of recording a finished job. */
+    @Benchmark
+    public void complete() throws Exception {
+        // no owner, so the claim fields of this stand-in are never compared
+        Job row = new Job("hist-" + (ids.incrementAndGet() % history), "true", "completed", 1, 3, 0, 0, 0, null);
+        store.markCompleted(row, null, "ok");
+    }
+
+    private Job next(Claimer claimer) throws Exception {
+        if (claimer.batch.isEmpty()) claimer.batch.addAll(queues.claim(claimer.workerId, claimBatch));
+        return claimer.batch.poll();
+    }
+
+    @Benchmark
+    public void claimAndComplete(Claimer claimer, Blackhole bh) throws Exception {
+        Job job = next(claimer);
+        if (job != null) store.markCompleted(job, claimer.workerId, "ok");
+        bh.consume(job);
+    }
+
+    /** Retries with no delay, so the job is claimable again and the backlog stays constant. */
+    @Benchmark
+    public void claimAndRetry(Claimer claimer, Blackhole bh) throws Exception {
+        Job job = next(claimer);
+        if (job != null) store.markFailedRetry(job, claimer.workerId, "rc=1", 0);
+        bh.consume(job);
+    }
+}
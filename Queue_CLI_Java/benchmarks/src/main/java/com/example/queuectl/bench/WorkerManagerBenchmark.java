@@ -0,0 +1,81 @@
+package com.example.queuectl.bench;
+
+import com.example.queuectl.ConfigStore;
+import com.example.queuectl.JobStore;
+import com.example.queuectl.WorkerManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end: time for a WorkerManager to drain {@code jobs} no-op commands, including the
+ * process launches. Each measurement is one drain of a freshly seeded database.
+ * {@code execShell} compares a login shell per job, a plain shell per job and a persistent
+ * shell per worker; persistent only applies to blocking mode and runs as plain under async.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WorkerManagerBenchmark {
+    @Param({"10000"})
+    public int history;
+
+    @Param({"500"})
+    public int jobs;
+
+    @Param({"1", "4"})
+    public int workers;
+
+    @Param({"blocking", "async"})
+    public String execMode;
+
+    @Param({"login", "plain", "persistent"})
+    public String execShell;
+
+    private Path dir;
+    private JobStore store;
+    private ConfigStore config;
+    private PrintStream stdout;
+
+    @Setup(Level.Invocation)
+    public void seed() throws Exception {
+        dir = BenchDb.create(history);
+        store = new JobStore(BenchDb.dbPath(dir));
+        config = new ConfigStore(store.conn);
+        config.initDefaults();
+        config.upsert("exec_mode", execMode);
+        config.upsert("exec_shell", execShell);
+        config.upsert("log_dir", dir.resolve("logs").toString());
+        BenchDb.seed(store, "run-", jobs, "pending", "true");
+        // workers log every job to stdout; keep that out of the JMH report
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Invocation)
+    public void cleanup() throws Exception {
+        System.setOut(stdout);
+        store.close();
+        BenchDb.delete(dir);
+    }
+
+    @Benchmark
+    public long drain() throws Exception {
+        WorkerManager mgr = new WorkerManager(store, config, workers);
+        mgr.start();
+        long done;
+        do {
+            Thread.sleep(5);
+            var counts = store.countByState();
+            done = counts.getOrDefault("completed", 0L) - history + counts.getOrDefault("dead", 0L);
+        } while (done < jobs);
+        mgr.shutdownGraceful();
+        return done;
+    }
+}
@@ -0,0 +1,294 @@
+package com.example.queuectl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Moves completed and dead jobs older than the retention period out of the jobs table into
+ * append-only segments: gzip NDJSON files under {@code <archive_dir>/<yyyy-MM-dd>/}, one
+ * directory per UTC day of the finish time, never rewritten once committed.
+ *
+ * A segment is written and synced as {@code .pending} first, then its rows are deleted and
+ * the segment recorded in archive_segments in one transaction, and only then is it renamed
+ * into place. A .pending file that is recorded was committed and just needs the rename; one
+ * that is not recorded and has been lying around for an hour belongs to a pass that died
+ * before committing, and its rows are still in the table. Rows that changed after being read
+ * (a dlq retry, or another worker process archiving the same batch) make the transaction
+ * roll back, so every job ends up in exactly one place.
+ */
+public class Archiver {
+    static final int BATCH = 5000;
+    private static final long STALE_PENDING_MILLIS = 3_600_000;
+
+    private final JobStore store;
+    private final Path dir;
+    private final long retentionMillis;
+    private ScheduledExecutorService timer;
+
+    public Archiver(JobStore store, Path dir, long retentionMillis) {
+        this.store = store;
+        this.dir = dir;
+        this.retentionMillis = retentionMillis;
+    }
+
+    /** Runs a pass every {@code periodMillis} on a daemon thread until {@link #shutdown}. */
+    public synchronized void start(long periodMillis) {
+        if (retentionMillis <= 0 || timer != null) return;
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "queuectl-archiver");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::tick, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void tick() {
+        try {
+            long n = runOnce();
+            if (n > 0) Log.info("[archive] moved " + n + " finished jobs to " + dir);
+        } catch (Exception e) {
+            // nothing is lost: rows stay in the table until their segment is committed
+            Log.warn("[archive] pass failed, retrying next period: " + e);
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (timer != null) timer.shutdownNow();
+    }
+
+    /** One pass: archives every finished job past retention, then frees the pages. Returns the job count. */
+    public long runOnce() throws SQLException, IOException {
+        if (retentionMillis <= 0) return 0;
+        recover();
+        long cutoff = Job.nowMillis() - retentionMillis;
+        long total = 0;
+        while (true) {
+            List<Job> batch = nextBatch(cutoff);
+            if (batch.isEmpty() || !archive(batch)) break;
+            total += batch.size();
+        }
+        if (total > 0) store.incrementalVacuum();
+        return total;
+    }
+
+    /** Up to BATCH of the oldest finished jobs before {@code cutoff}, all from the first one's UTC day. */
+    private List<Job> nextBatch(long cutoff) throws SQLException {
+        List<Job> out = store.read(c -> {
+            List<Job> rows = new ArrayList<>();
+            try (PreparedStatement p = c.prepareStatement("SELECT " + JobStore.JOB_COLUMNS +
+                    " FROM jobs INDEXED BY idx_jobs_finished WHERE state IN ('completed','dead') AND updated_at < ? " +
+                    "ORDER BY updated_at, id LIMIT ?")) {
+                p.setLong(1, cutoff);
+                p.setInt(2, BATCH);
+                ResultSet rs = p.executeQuery();
+                while (rs.next()) rows.add(JobStore.readJob(rs));
+            }
+            return rows;
+        });
+        if (out.isEmpty()) return out;
+        String day = day(out.get(0).updatedAt);
+        int end = 0;
+        while (end < out.size() && day(out.get(end).updatedAt).equals(day)) end++;
+        return out.subList(0, end);
+    }
+
+    private boolean archive(List<Job> batch) throws SQLException, IOException {
+        Job first = batch.get(0);
+        Job last = batch.get(batch.size() - 1);
+        String name = day(first.updatedAt) + "/" + first.updatedAt + "-" + last.updatedAt + "-"
+                + Integer.toHexString(ThreadLocalRandom.current().nextInt()) + ".ndjson.gz";
+        Path segment = dir.resolve(name);
+        Path pending = dir.resolve(name + ".pending");
+        Files.createDirectories(segment.getParent());
+        try (FileOutputStream file = new FileOutputStream(pending.toFile())) {
+            GZIPOutputStream gz = new GZIPOutputStream(file, 1 << 16);
+            Writer w = new BufferedWriter(new OutputStreamWriter(gz, StandardCharsets.UTF_8), 1 << 16);
+            JsonWriter json = new JsonWriter(w);
+            for (Job job : batch) {
+                job.writeJson(json, true);
+                w.write('\n');
+            }
+            w.flush();
+            gz.finish();
+            file.getFD().sync();
+        }
+        boolean committed = store.write(c -> {
+            c.setAutoCommit(false);
+            try {
+                // a stale-file sweep by another process got here first; leave the rows be
+                if (!Files.exists(pending)) {
+                    c.rollback();
+                    return false;
+                }
+                int deleted = 0;
+                try (PreparedStatement p = c.prepareStatement("DELETE FROM jobs WHERE id = ? AND state = ? AND updated_at = ?")) {
+                    for (Job job : batch) {
+                        p.setString(1, job.id);
+                        p.setString(2, job.state);
+                        p.setLong(3, job.updatedAt);
+                        p.addBatch();
+                    }
+                    for (int n : p.executeBatch()) deleted += n;
+                }
+                if (deleted != batch.size()) {
+                    c.rollback();
+                    return false;
+                }
+                try (PreparedStatement p = c.prepareStatement("INSERT INTO archive_segments(name, min_updated_at, max_updated_at, jobs, created_at) VALUES (?,?,?,?,?)")) {
+                    p.setString(1, name);
+                    p.setLong(2, first.updatedAt);
+                    p.setLong(3, last.updatedAt);
+                    p.setInt(4, batch.size());
+                    p.setLong(5, Job.nowMillis());
+                    p.execute();
+                }
+                c.commit();
+                return true;
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        });
+        if (!committed) {
+            Files.deleteIfExists(pending);
+            return false;
+        }
+        publish(pending, segment);
+        return true;
+    }
+
+    /** Finishes or discards .pending files left behind by passes that did not get to the rename. */
+    private void recover() throws SQLException, IOException {
+        if (!Files.isDirectory(dir)) return;
+        List<Path> leftovers;
+        try (Stream<Path> files = Files.walk(dir, 2)) {
+            leftovers = files.filter(f -> f.getFileName().toString().endsWith(".pending")).collect(Collectors.toList());
+        }
+        for (Path pending : leftovers) {
+            String file = pending.getFileName().toString();
+            Path segment = pending.resolveSibling(file.substring(0, file.length() - ".pending".length()));
+            String name = dir.relativize(segment).toString().replace('\\', '/');
+            boolean recorded = store.read(c -> {
+                try (PreparedStatement p = c.prepareStatement("SELECT 1 FROM archive_segments WHERE name = ?")) {
+                    p.setString(1, name);
+                    return p.executeQuery().next();
+                }
+            });
+            if (recorded) {
+                publish(pending, segment);
+            } else if (Job.nowMillis() - Files.getLastModifiedTime(pending).toMillis() > STALE_PENDING_MILLIS) {
+                Files.deleteIfExists(pending);
+            }
+        }
+    }
+
+    private static void publish(Path pending, Path segment) throws IOException {
+        try {
+            Files.move(pending, segment, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            // another process's recovery already did it
+        }
+    }
+
+    /** Filters for {@link #query}; null matches anything. from/to bound the finish time (updated_at), end exclusive. */
+    public static class Query {
+        public Long from;
+        public Long to;
+        public String state;
+        public String queue;
+        public String id;
+        /** 0 for no limit. */
+        public long limit;
+
+        boolean filtersRows() {
+            return from != null || to != null || state != null || queue != null || id != null;
+        }
+
+        boolean matches(String line) {
+            if (!filtersRows()) return true;
+            // cheap reject before parsing: the id appears verbatim in its own line
+            if (id != null && !line.contains(id)) return false;
+            Map<String, Object> job = Json.parseObject(line);
+            if (id != null && !id.equals(job.get("id"))) return false;
+            if (state != null && !state.equals(job.get("state"))) return false;
+            if (queue != null && !queue.equals(job.get("queue"))) return false;
+            if (from != null || to != null) {
+                long at = Instant.parse(String.valueOf(job.get("updated_at"))).toEpochMilli();
+                if (from != null && at < from) return false;
+                if (to != null && at >= to) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Streams archived jobs matching {@code q} to {@code out} as NDJSON, oldest segment first,
+     * one line in memory at a time. Day directories and segments whose finish-time range
+     * (from the file name) misses from/to are skipped without being opened. Returns the count.
+     */
+    public static long query(Path dir, Query q, Writer out) throws IOException {
+        if (!Files.isDirectory(dir)) return 0;
+        String fromDay = q.from == null ? null : day(q.from);
+        String toDay = q.to == null ? null : day(q.to - 1);
+        long n = 0;
+        for (Path d : sorted(dir, Files::isDirectory)) {
+            String day = d.getFileName().toString();
+            if (fromDay != null && day.compareTo(fromDay) < 0) continue;
+            if (toDay != null && day.compareTo(toDay) > 0) break;
+            for (Path segment : sorted(d, f -> f.getFileName().toString().endsWith(".ndjson.gz"))) {
+                String[] range = segment.getFileName().toString().split("-", 3);
+                if (q.from != null && Long.parseLong(range[1]) < q.from) continue;
+                if (q.to != null && Long.parseLong(range[0]) >= q.to) continue;
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                        new GZIPInputStream(Files.newInputStream(segment), 1 << 16), StandardCharsets.UTF_8), 1 << 16)) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (!q.matches(line)) continue;
+                        out.write(line);
+                        out.write('\n');
+                        if (++n == q.limit) return n;
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    private static List<Path> sorted(Path dir, java.util.function.Predicate<Path> filter) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(filter).sorted().collect(Collectors.toList());
+        }
+    }
+
+    static String day(long millis) {
+        return Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC).toLocalDate().toString();
+    }
+}
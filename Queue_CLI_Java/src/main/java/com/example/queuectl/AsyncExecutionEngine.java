@@ -0,0 +1,113 @@
+package com.example.queuectl;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs job processes without holding a thread per child. Output goes straight to the job's
+ * live log through the OS redirect, completion is observed via {@link Process#onExit()}, and
+ * the result handler runs on a virtual thread when the JVM has them (JDK 21+) or on a small
+ * platform pool otherwise. A semaphore caps processes in flight independently of how many
+ * claim loops feed the engine.
+ */
+public class AsyncExecutionEngine {
+    private final int maxInFlight;
+    private final Semaphore permits;
+    private final ExecutorService callbacks;
+
+    public AsyncExecutionEngine(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+        this.callbacks = callbackExecutor();
+    }
+
+    private static ExecutorService callbackExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "queuectl-exec-callback");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    public int maxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Waits up to {@code timeoutMillis} for a free slot, then takes up to {@code wanted} slots.
+     * Returns 0 if none became free, so the caller can re-check whether it should stop.
+     */
+    public int reserve(int wanted, long timeoutMillis) throws InterruptedException {
+        if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) return 0;
+        int got = 1;
+        while (got < wanted && permits.tryAcquire()) got++;
+        return got;
+    }
+
+    public void unreserve(int slots) {
+        if (slots > 0) permits.release(slots);
+    }
+
+    /**
+     * Starts {@code pb} in a slot previously taken with {@link #reserve}; the slot is given back
+     * after {@code handler} has run. The handler receives either a result or the launch error.
+     * A positive {@code timeoutMillis} hands the process to the {@link JobWatchdog}.
+     */
+    public void launch(ProcessBuilder pb, OutputSink sink, long timeoutMillis, BiConsumer<ExecResult, Throwable> handler) {
+        Process proc;
+        try {
+            sink.attach(pb);
+            proc = pb.start();
+        } catch (IOException e) {
+            callbacks.execute(() -> {
+                try {
+                    sink.finish();
+                    handler.accept(null, e);
+                } catch (IOException logError) {
+                    handler.accept(null, e);
+                } finally {
+                    permits.release();
+                }
+            });
+            return;
+        }
+        JobWatchdog.Watch watch = JobWatchdog.watch(proc, timeoutMillis);
+        CompletableFuture<Process> exit = proc.onExit();
+        exit.whenCompleteAsync((p, err) -> {
+            try {
+                boolean timedOut = watch.cancel();
+                String output = sink.finish();
+                if (err != null) {
+                    handler.accept(null, err);
+                } else {
+                    handler.accept(new ExecResult(p.exitValue(), output, timedOut), null);
+                }
+            } catch (IOException e) {
+                handler.accept(null, e);
+            } finally {
+                permits.release();
+            }
+        }, callbacks);
+    }
+
+    /** Waits for every in-flight job to finish, up to {@code timeoutMillis}. */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        if (!permits.tryAcquire(maxInFlight, timeoutMillis, TimeUnit.MILLISECONDS)) return false;
+        permits.release(maxInFlight);
+        return true;
+    }
+
+    public void shutdown() {
+        callbacks.shutdown();
+    }
+}
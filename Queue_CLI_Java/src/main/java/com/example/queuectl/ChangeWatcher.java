@@ -0,0 +1,59 @@
+package com.example.queuectl;
+
+import java.sql.SQLException;
+
+/**
+ * Notices commits made by other processes (e.g. a CLI {@code enqueue}) by polling
+ * PRAGMA data_version, which SQLite answers from shared memory without touching the
+ * database file. The poll interval doubles while nothing changes and snaps back to the
+ * minimum after a change, so an idle queue costs a few cheap reads per second. A change
+ * also marks the {@link DueScheduler} stale, since it may have been a delayed enqueue.
+ *
+ * data_version also moves on this process's own claims and completions, which cannot be
+ * told apart from foreign commits. So only a change after a quiet poll resets the interval;
+ * while every poll sees one, the interval keeps doubling, and a busy process wakes its idle
+ * workers at most once per maximum interval.
+ */
+public class ChangeWatcher implements Runnable {
+    private final JobStore store;
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private volatile boolean running = true;
+
+    public ChangeWatcher(JobStore store, long minIntervalMs, long maxIntervalMs) {
+        this.store = store;
+        this.minIntervalMs = Math.max(1, minIntervalMs);
+        this.maxIntervalMs = Math.max(this.minIntervalMs, maxIntervalMs);
+    }
+
+    public void shutdown() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        long interval = minIntervalMs;
+        try {
+            long last = store.dataVersion();
+            boolean changing = false;
+            while (running) {
+                Thread.sleep(interval);
+                long current = store.dataVersion();
+                if (current != last) {
+                    last = current;
+                    interval = changing ? Math.min(maxIntervalMs, interval * 2) : minIntervalMs;
+                    changing = true;
+                    store.schedule.markStale();
+                    store.wakeup.signal();
+                } else {
+                    changing = false;
+                    interval = Math.min(maxIntervalMs, interval * 2);
+                }
+            }
+        } catch (InterruptedException ignored) {
+        } catch (SQLException e) {
+            // workers still notice foreign enqueues, only later, on their idle timeout
+            Log.error("change watcher stopped", e);
+        }
+    }
+}
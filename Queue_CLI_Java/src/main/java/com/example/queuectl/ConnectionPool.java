@@ -0,0 +1,93 @@
+package com.example.queuectl;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-ceiling pool of SQLite connections to one database file. Connections are opened
+ * lazily, so a CLI command that touches the store once pays for a single extra connection
+ * while {@code worker start N} ends up with one per worker.
+ */
+class ConnectionPool implements AutoCloseable {
+    private final String url;
+    private final LinkedBlockingDeque<Connection> idle = new LinkedBlockingDeque<>();
+    private final List<Connection> all = new ArrayList<>();
+    private int maxSize;
+    private String synchronous = "NORMAL";
+
+    ConnectionPool(String url, int maxSize) {
+        this.url = url;
+        this.maxSize = maxSize;
+    }
+
+    static Connection open(String url) throws SQLException {
+        return open(url, "NORMAL");
+    }
+
+    private static Connection open(String url, String synchronous) throws SQLException {
+        Connection c = DriverManager.getConnection(url);
+        try (Statement s = c.createStatement()) {
+            s.execute("PRAGMA journal_mode=WAL;");
+            s.execute("PRAGMA busy_timeout=5000;");
+            s.execute("PRAGMA synchronous=" + synchronous + ";");
+        }
+        return c;
+    }
+
+    /** Applies PRAGMA synchronous to idle connections and to every one opened later. */
+    synchronized void setSynchronous(String mode) throws SQLException {
+        String m = mode.trim().toUpperCase();
+        if (!m.equals("NORMAL") && !m.equals("FULL")) throw new SQLException("synchronous must be NORMAL or FULL: " + mode);
+        synchronous = m;
+        for (Connection c : idle) {
+            try (Statement s = c.createStatement()) {
+                s.execute("PRAGMA synchronous=" + m + ";");
+            }
+        }
+    }
+
+    synchronized void resize(int maxSize) {
+        this.maxSize = Math.max(this.maxSize, maxSize);
+    }
+
+    Connection acquire() throws SQLException {
+        Connection c = idle.pollFirst();
+        if (c != null) return c;
+        synchronized (this) {
+            if (all.size() < maxSize) {
+                c = open(url, synchronous);
+                all.add(c);
+                return c;
+            }
+        }
+        try {
+            while (true) {
+                c = idle.pollFirst(100, TimeUnit.MILLISECONDS);
+                if (c != null) return c;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted waiting for a connection", e);
+        }
+    }
+
+    void release(Connection c) {
+        // LIFO keeps a busy worker on the connection whose page cache is already warm
+        idle.addFirst(c);
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Connection c : all) {
+            try { c.close(); } catch (SQLException ignored) {}
+        }
+        all.clear();
+        idle.clear();
+    }
+}
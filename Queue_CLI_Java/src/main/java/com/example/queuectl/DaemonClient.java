@@ -0,0 +1,62 @@
+package com.example.queuectl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** Thin-client side of {@link DaemonServer}. */
+public final class DaemonClient {
+    private DaemonClient() {
+    }
+
+    /**
+     * Runs {@code args} on the daemon listening at {@code socketPath}, copying its output to
+     * {@code out}/{@code err}, and returns its exit code. Returns null without side effects
+     * when no daemon answers, so the caller can fall back to opening the database itself.
+     */
+    public static Integer tryForward(Path socketPath, String[] args, PrintStream out, PrintStream err) {
+        if (!Files.exists(socketPath)) return null;
+        SocketChannel ch;
+        try {
+            ch = SocketChannel.open(UnixDomainSocketAddress.of(socketPath));
+        } catch (IOException | UnsupportedOperationException e) {
+            // stale socket file from a daemon that did not shut down cleanly
+            return null;
+        }
+        try (ch) {
+            DaemonProtocol.writeRequest(new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch))), args);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 8192));
+            byte[] buf = new byte[8192];
+            while (true) {
+                byte tag = in.readByte();
+                int n = in.readInt();
+                if (tag == DaemonProtocol.EXIT) {
+                    out.flush();
+                    err.flush();
+                    return n;
+                }
+                PrintStream target = tag == DaemonProtocol.ERR ? err : out;
+                while (n > 0) {
+                    int r = in.read(buf, 0, Math.min(n, buf.length));
+                    if (r < 0) throw new EOFException();
+                    target.write(buf, 0, r);
+                    n -= r;
+                }
+            }
+        } catch (IOException e) {
+            // the request may already have run, so retrying locally could enqueue twice
+            out.flush();
+            err.println("daemon connection lost: " + e);
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.queuectl;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire format between a thin client and {@link DaemonServer}.
+ *
+ * Request:  int magic, int argc, then argc x (int length, UTF-8 bytes).
+ * Response: a sequence of frames, each a one-byte tag followed by an int; OUT and ERR frames
+ * carry that many bytes of stdout/stderr, EXIT carries the exit code and ends the response.
+ */
+final class DaemonProtocol {
+    static final int MAGIC = 0x51430001; // "QC", version 1
+    static final byte OUT = 'O';
+    static final byte ERR = 'E';
+    static final byte EXIT = 'X';
+    // arguments are short command words and one JSON spec; anything bigger is not ours
+    private static final int MAX_ARG_BYTES = 1 << 20;
+    private static final int MAX_ARGS = 64;
+
+    private DaemonProtocol() {
+    }
+
+    static void writeRequest(DataOutputStream out, String[] args) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(args.length);
+        for (String a : args) {
+            byte[] b = a.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+        out.flush();
+    }
+
+    static String[] readRequest(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("not a queuectl request");
+        int argc = in.readInt();
+        if (argc < 1 || argc > MAX_ARGS) throw new IOException("bad argument count " + argc);
+        String[] args = new String[argc];
+        for (int i = 0; i < argc; i++) {
+            int len = in.readInt();
+            if (len < 0 || len > MAX_ARG_BYTES) throw new IOException("bad argument length " + len);
+            byte[] b = new byte[len];
+            in.readFully(b);
+            args[i] = new String(b, StandardCharsets.UTF_8);
+        }
+        return args;
+    }
+
+    /** Turns writes into frames with a fixed tag; shared by the OUT and ERR streams of one connection. */
+    static final class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte tag;
+
+        FrameOutputStream(DataOutputStream out, byte tag) {
+            this.out = out;
+            this.tag = tag;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            synchronized (out) {
+                out.writeByte(tag);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+}
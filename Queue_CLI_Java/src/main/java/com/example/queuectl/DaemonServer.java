@@ -0,0 +1,195 @@
+package com.example.queuectl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Answers enqueue/status/list/dlq/config for thin clients over a Unix domain socket, using the
+ * worker process's already-open store. A client then skips loading the SQLite driver, opening
+ * the database and running the schema check, and an enqueue here wakes the local workers
+ * directly instead of through the ChangeWatcher.
+ *
+ * A client that stops reading its response is cut off once a write to it has been blocked
+ * for {@link #WRITE_TIMEOUT_MS}; socket channels have no send timeout of their own.
+ */
+public class DaemonServer {
+    static final long WRITE_TIMEOUT_MS = 10_000;
+    private final Path socketPath;
+    private final JobStore store;
+    private final ExecutorService handlers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "queuectl-daemon-conn");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Set<StallWatch> clients = ConcurrentHashMap.newKeySet();
+    private ServerSocketChannel server;
+
+    public DaemonServer(Path socketPath, JobStore store) {
+        this.socketPath = socketPath;
+        this.store = store;
+    }
+
+    /** Binds the socket, replacing a stale one left by a crashed daemon, and starts accepting. */
+    public void start() throws IOException {
+        if (Files.exists(socketPath)) {
+            if (isLive(socketPath)) throw new IOException("a daemon is already listening on " + socketPath);
+            Files.deleteIfExists(socketPath);
+        }
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socketPath));
+        try {
+            Files.setPosixFilePermissions(socketPath, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException ignored) {
+        }
+        Thread t = new Thread(this::acceptLoop, "queuectl-daemon");
+        t.setDaemon(true);
+        t.start();
+        Thread reaper = new Thread(this::reapStalledClients, "queuectl-daemon-reaper");
+        reaper.setDaemon(true);
+        reaper.start();
+        Log.info("Listening on " + socketPath);
+    }
+
+    private static boolean isLive(Path socketPath) {
+        try {
+            SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(socketPath));
+            probe.close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void acceptLoop() {
+        while (server.isOpen()) {
+            try {
+                SocketChannel ch = server.accept();
+                handlers.execute(() -> serve(ch));
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                Log.warn("daemon accept failed", e);
+            }
+        }
+    }
+
+    // closing the channel fails the blocked write, which ends that client's handler
+    private void reapStalledClients() {
+        while (server.isOpen()) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (StallWatch w : clients) {
+                if (w.stalledFor(now) >= WRITE_TIMEOUT_MS * 1_000_000L) {
+                    Log.warn("daemon client stopped reading for " + WRITE_TIMEOUT_MS + "ms, closing it");
+                    w.abort();
+                }
+            }
+        }
+    }
+
+    private void serve(SocketChannel ch) {
+        StallWatch watch = new StallWatch(Channels.newOutputStream(ch), ch);
+        clients.add(watch);
+        try (ch) {
+            String[] args = DaemonProtocol.readRequest(new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch))));
+            DataOutputStream frames = new DataOutputStream(new BufferedOutputStream(watch, 8192));
+            PrintStream out = new PrintStream(new BufferedOutputStream(new DaemonProtocol.FrameOutputStream(frames, DaemonProtocol.OUT), 8192));
+            PrintStream err = new PrintStream(new BufferedOutputStream(new DaemonProtocol.FrameOutputStream(frames, DaemonProtocol.ERR), 8192));
+            int code = 0;
+            if (!Main.forwardable(args)) {
+                err.println("not available through the daemon: " + args[0]);
+                code = 2;
+            } else {
+                try {
+                    Main.run(args, store, out, err);
+                } catch (Exception e) {
+                    err.println("error: " + e);
+                    code = 1;
+                }
+            }
+            out.flush();
+            err.flush();
+            synchronized (frames) {
+                frames.writeByte(DaemonProtocol.EXIT);
+                frames.writeInt(code);
+                frames.flush();
+            }
+        } catch (IOException e) {
+            // client went away or spoke something else; nothing to answer
+        } finally {
+            clients.remove(watch);
+        }
+    }
+
+    /** Records when a write to the client started, so the reaper can tell a stalled one. */
+    private static final class StallWatch extends FilterOutputStream {
+        private final SocketChannel ch;
+        // System.nanoTime() when the pending write started; 0 while none is
+        private volatile long since;
+
+        StallWatch(OutputStream out, SocketChannel ch) {
+            super(out);
+            this.ch = ch;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            since = System.nanoTime();
+            try {
+                out.write(b, off, len);
+            } finally {
+                since = 0;
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        long stalledFor(long now) {
+            long s = since;
+            return s == 0 ? 0 : now - s;
+        }
+
+        void abort() {
+            try {
+                ch.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public void close() {
+        try {
+            if (server != null) server.close();
+            Files.deleteIfExists(socketPath);
+        } catch (IOException e) {
+            Log.warn("could not remove " + socketPath, e);
+        }
+        handlers.shutdown();
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.queuectl;
+
+import java.sql.SQLException;
+import java.util.TreeSet;
+
+/**
+ * Time-ordered set of upcoming next_run_at values for pending jobs, so an idle worker can
+ * sleep exactly until the earliest delayed job is due instead of polling for it.
+ *
+ * The set is a cache of the pending index: it is loaded at startup, fed by retries and
+ * delayed enqueues made in this process, and topped up from the database whenever it runs
+ * dry or {@link ChangeWatcher} reports a commit from another process.
+ */
+public class DueScheduler {
+    private static final int CAPACITY = 4096;
+
+    private final JobStore store;
+    private final TreeSet<Long> due = new TreeSet<>();
+    private boolean stale = true;
+
+    public DueScheduler(JobStore store) {
+        this.store = store;
+    }
+
+    public synchronized void load() throws SQLException {
+        due.clear();
+        due.addAll(store.upcomingDueTimes(Job.nowMillis(), CAPACITY));
+        stale = false;
+    }
+
+    public synchronized void add(long dueAt) {
+        due.add(dueAt);
+        if (due.size() > CAPACITY) {
+            due.pollLast();
+        }
+    }
+
+    /** Another process may have added delayed jobs; look at the database on the next wait. */
+    public synchronized void markStale() {
+        stale = true;
+    }
+
+    /**
+     * How long a worker whose claim at {@code claimedAt} came back empty may sleep, capped
+     * at {@code maxMillis}. Entries at or before {@code claimedAt} were already due during
+     * that claim, so they belong to jobs someone else took and are dropped.
+     */
+    public synchronized long waitMillis(long claimedAt, long maxMillis) throws SQLException {
+        due.headSet(claimedAt, true).clear();
+        if (stale || due.isEmpty()) {
+            stale = false;
+            Long next = store.nextDueAfter(claimedAt);
+            if (next != null) due.add(next);
+        }
+        if (due.isEmpty()) return maxMillis;
+        long wait = due.first() - Job.nowMillis();
+        return Math.max(0, Math.min(maxMillis, wait));
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.queuectl;
+
+/** Outcome of running one job's command: the exit code and its captured, trimmed output. */
+public class ExecResult {
+    public final int exitCode;
+    public final String output;
+    /** The watchdog killed the process; exitCode is whatever the kill produced. */
+    public final boolean timedOut;
+
+    public ExecResult(int exitCode, String output) {
+        this(exitCode, output, false);
+    }
+
+    public ExecResult(int exitCode, String output, boolean timedOut) {
+        this.exitCode = exitCode;
+        this.output = output;
+        this.timedOut = timedOut;
+    }
+}
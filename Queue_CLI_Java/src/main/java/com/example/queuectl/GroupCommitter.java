@@ -0,0 +1,120 @@
+package com.example.queuectl;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single writer for job state transitions. Workers queue their mark* updates here and move
+ * on; this thread commits whatever has piled up as one transaction, so a burst of short jobs
+ * costs one commit instead of one per job. The queue is bounded, so when commits cannot keep
+ * up, workers block in {@link #submit} rather than piling up unbounded unwritten state.
+ *
+ * A batch that fails is retried until it commits: the workers have already reported those
+ * outcomes, so dropping them would leave jobs in processing that the logs and metrics call
+ * finished. Only on {@link #close} does it give up after a while, listing the jobs; their
+ * leases lapse once the process is gone and the reaper requeues them.
+ */
+class GroupCommitter implements Runnable {
+    private final JobStore store;
+    private final int maxBatch;
+    private final long lingerNanos;
+    private final BlockingQueue<JobStore.Transition> queue;
+    private final Thread thread;
+    private volatile boolean closing;
+
+    GroupCommitter(JobStore store, int maxBatch, long lingerMillis) {
+        this.store = store;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, lingerMillis));
+        this.queue = new ArrayBlockingQueue<>(this.maxBatch * 4);
+        this.thread = new Thread(this, "queuectl-committer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Queues {@code t}; false once closing, in which case the caller writes it itself. */
+    boolean submit(JobStore.Transition t) {
+        try {
+            while (!closing) {
+                if (queue.offer(t, 100, TimeUnit.MILLISECONDS)) return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    @Override
+    public void run() {
+        List<JobStore.Transition> batch = new ArrayList<>(maxBatch);
+        while (!closing || !queue.isEmpty()) {
+            try {
+                JobStore.Transition first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - batch.size());
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < maxBatch && !closing) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) break;
+                    JobStore.Transition next = queue.poll(left, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatch - batch.size());
+                }
+            } catch (InterruptedException e) {
+                // close() interrupts a linger; commit what we have and drain the rest
+            }
+            if (!batch.isEmpty()) commit(batch);
+            batch.clear();
+        }
+    }
+
+    private void commit(List<JobStore.Transition> batch) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                store.applyTransitions(batch);
+                return;
+            } catch (SQLException e) {
+                // still busy after busy_timeout, or the file is unwritable; the updates only live here
+                if (closing && attempt >= 20) {
+                    List<String> ids = new ArrayList<>(batch.size());
+                    for (JobStore.Transition t : batch) {
+                        ids.add(t.id);
+                        store.forgetClaim(t.id, t.attempt);
+                    }
+                    Log.error("shutting down with " + batch.size() + " job state updates unwritten; " +
+                            "these jobs are requeued when their leases expire: " + ids + ": " + e);
+                    return;
+                }
+                if (attempt <= 5 || attempt % 60 == 0) {
+                    Log.warn("group commit of " + batch.size() + " job state updates failed (attempt " + attempt + "), retrying: " + e);
+                }
+                try {
+                    Thread.sleep(Math.min(1000, 50L * attempt));
+                } catch (InterruptedException ignored) {
+                    // close() interrupts to end a linger; keep retrying regardless
+                }
+            }
+        }
+    }
+
+    /** Stops accepting work and returns once everything queued so far is committed. */
+    void close() {
+        closing = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // a submit racing with close may have slipped in after the thread's last look
+        List<JobStore.Transition> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) commit(rest);
+    }
+}
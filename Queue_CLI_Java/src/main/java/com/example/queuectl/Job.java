@@ -1,19 +1,45 @@
 package com.example.queuectl;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Instant;
 
 public class Job {
+    public static final String DEFAULT_QUEUE = "default";
+
     public final String id;
     public final String command;
     public String state; // pending, processing, completed, dead
     public int attempts;
     public final int maxRetries;
-    public final String createdAt;
-    public String updatedAt;
-    public String nextRunAt;
+    // timestamps are epoch millis, matching the INTEGER columns in jobs
+    public final long createdAt;
+    public long updatedAt;
+    public long nextRunAt;
     public String lastError;
+    /** Run time limit for this job; null uses the job_timeout_seconds config. */
+    public final Integer timeoutSeconds;
+    public final String queue;
+    /** Higher runs first within its queue. */
+    public final int priority;
+    /** Seconds a successful result may be reused for the same command and cache key; null never caches. */
+    public final Integer cacheTtl;
+    public final String cacheKey;
+
+    public Job(String id, String command, String state, int attempts, int maxRetries, long createdAt, long updatedAt, long nextRunAt, String lastError) {
+        this(id, command, state, attempts, maxRetries, createdAt, updatedAt, nextRunAt, lastError, null);
+    }
+
+    public Job(String id, String command, String state, int attempts, int maxRetries, long createdAt, long updatedAt, long nextRunAt, String lastError, Integer timeoutSeconds) {
+        this(id, command, state, attempts, maxRetries, createdAt, updatedAt, nextRunAt, lastError, timeoutSeconds, DEFAULT_QUEUE, 0);
+    }
+
+    public Job(String id, String command, String state, int attempts, int maxRetries, long createdAt, long updatedAt, long nextRunAt, String lastError, Integer timeoutSeconds, String queue, int priority) {
+        this(id, command, state, attempts, maxRetries, createdAt, updatedAt, nextRunAt, lastError, timeoutSeconds, queue, priority, null, null);
+    }
 
-    public Job(String id, String command, String state, int attempts, int maxRetries, String createdAt, String updatedAt, String nextRunAt, String lastError) {
+    public Job(String id, String command, String state, int attempts, int maxRetries, long createdAt, long updatedAt, long nextRunAt, String lastError, Integer timeoutSeconds, String queue, int priority,
+               Integer cacheTtl, String cacheKey) {
         this.id = id;
         this.command = command;
         this.state = state;
@@ -23,14 +49,54 @@ public class Job {
         this.updatedAt = updatedAt;
         this.nextRunAt = nextRunAt;
         this.lastError = lastError;
+        this.timeoutSeconds = timeoutSeconds;
+        this.queue = queue;
+        this.priority = priority;
+        this.cacheTtl = cacheTtl;
+        this.cacheKey = cacheKey;
+    }
+
+    public static long nowMillis() {
+        return System.currentTimeMillis();
+    }
+
+    public static String iso(long millis) {
+        return Instant.ofEpochMilli(millis).toString();
+    }
+
+    /** Writes the job as one JSON object; timestamps are ISO-8601 strings. */
+    public void writeJson(JsonWriter w) throws IOException {
+        writeJson(w, false);
     }
 
-    public static String nowIso() {
-        return Instant.now().toString();
+    /** As {@link #writeJson(JsonWriter)}, adding last_error (the output summary) when asked. */
+    public void writeJson(JsonWriter w, boolean withLastError) throws IOException {
+        w.beginObject()
+                .field("id", id)
+                .field("command", command)
+                .field("state", state)
+                .field("queue", queue)
+                .field("priority", priority)
+                .field("attempts", attempts)
+                .field("max_retries", maxRetries)
+                .field("created_at", iso(createdAt))
+                .field("updated_at", iso(updatedAt))
+                .field("next_run_at", iso(nextRunAt));
+        if (timeoutSeconds != null) w.field("timeout_seconds", timeoutSeconds);
+        if (cacheTtl != null) w.field("cache_ttl", cacheTtl);
+        if (cacheKey != null) w.field("cache_key", cacheKey);
+        if (withLastError) w.field("last_error", lastError);
+        w.endObject();
     }
 
     @Override
     public String toString() {
-        return "{\"id\":\""+id+"\",\"command\":\""+command+"\",\"state\":\""+state+"\",\"attempts\":"+attempts+",\"max_retries\":"+maxRetries+",\"created_at\":\""+createdAt+"\",\"updated_at\":\""+updatedAt+"\",\"next_run_at\":\""+nextRunAt+"\"}";
+        StringBuilder sb = new StringBuilder(128);
+        try {
+            writeJson(new JsonWriter(sb));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder does not throw
+        }
+        return sb.toString();
     }
 }
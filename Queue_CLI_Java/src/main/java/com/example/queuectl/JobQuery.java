@@ -0,0 +1,28 @@
+package com.example.queuectl;
+
+/**
+ * Filters and keyset position for {@link JobStore#scan}. Rows come back ordered by
+ * (created_at, id); a page continues from the last row of the previous one through
+ * {@link #afterCreatedAt}/{@link #afterId} rather than an OFFSET, so every page costs the same.
+ */
+public class JobQuery {
+    public String state;
+    public String queue;
+    /** Only rows after this created_at; with {@link #afterId}, after the row (afterCreatedAt, afterId). */
+    public Long afterCreatedAt;
+    public String afterId;
+    /** created_at range, inclusive start and exclusive end. */
+    public Long createdFrom;
+    public Long createdTo;
+    public Integer minAttempts;
+    public Integer maxAttempts;
+    /** 0 for no limit. */
+    public int limit;
+
+    public JobQuery() {
+    }
+
+    public JobQuery(String state) {
+        this.state = state;
+    }
+}
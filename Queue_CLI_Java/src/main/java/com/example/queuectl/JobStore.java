@@ -1,153 +1,854 @@
-
 package com.example.queuectl;
 
 import java.sql.*;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class JobStore {
+    /** Bump together with a new migrateVn step in {@link #migrate()}. */
+    static final int SCHEMA_VERSION = 9;
+    /** Every state a job can be in; job_counts has a row for each. */
+    public static final String[] STATES = {"pending", "processing", "completed", "dead"};
+    static final String JOB_COLUMNS = "id,command,state,attempts,max_retries,created_at,updated_at,next_run_at,last_error,timeout_seconds,queue,priority,cache_ttl,cache_key";
+    // rows per read in scan(); the connection goes back to the pool between pages
+    private static final int SCAN_PAGE = 512;
+
+    /** Primary connection for schema setup and {@link ConfigStore}; job traffic goes through the pool. */
     public final Connection conn;
+    private final ConnectionPool pool;
+    private final String url;
+    private Connection watchConn;
+    /** Signalled after every commit that can make a job claimable; see {@link ChangeWatcher} for other processes. */
+    public final WakeupSignal wakeup = new WakeupSignal();
+    /** Upcoming due times of delayed jobs, so idle workers can sleep until the next one. */
+    public final DueScheduler schedule = new DueScheduler(this);
+    /** Counters and latency histograms exported by {@link MetricsServer}. */
+    public final Metrics metrics = new Metrics();
+    /** Outputs of jobs enqueued with cache_ttl, so identical commands can skip running. */
+    public final ResultCache cache = new ResultCache(this);
+    private volatile GroupCommitter committer;
+    private volatile long leaseMillis = 30_000;
+    // claims made through this store whose outcome is not written yet: job id -> attempt number.
+    // Only these get their leases renewed, so a claim nobody is working on any more lapses.
+    private final ConcurrentHashMap<String, Integer> inFlight = new ConcurrentHashMap<>();
+    // SQLite admits one writer at a time; queueing writers here avoids busy-waiting inside the driver
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    interface SqlWork<T> {
+        T run(Connection c) throws SQLException;
+    }
+
+    /** Receives rows from {@link #scan}; returning false stops the scan. */
+    public interface JobVisitor {
+        boolean visit(Job job);
+    }
 
     public JobStore(String dbPath) throws SQLException {
         String url = "jdbc:sqlite:" + dbPath;
-        this.conn = DriverManager.getConnection(url);
-        try (Statement s = conn.createStatement()) {
-            s.execute("PRAGMA journal_mode=WAL;");
+        this.url = url;
+        this.conn = ConnectionPool.open(url);
+        this.pool = new ConnectionPool(url, 1);
+        migrate();
+    }
+
+    /** Lets the pool grow to {@code connections}; WorkerManager asks for one per worker. */
+    public void ensurePoolSize(int connections) {
+        pool.resize(connections);
+    }
+
+    public void close() throws SQLException {
+        pool.close();
+        synchronized (this) {
+            if (watchConn != null) watchConn.close();
         }
-        init();
+        conn.close();
     }
 
-    private void init() throws SQLException {
+    /** PRAGMA data_version on a connection of its own, so that commits from the pool count as changes too. */
+    public synchronized long dataVersion() throws SQLException {
+        if (watchConn == null) watchConn = ConnectionPool.open(url);
+        try (Statement s = watchConn.createStatement(); ResultSet rs = s.executeQuery("PRAGMA data_version")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    <T> T read(SqlWork<T> work) throws SQLException {
+        Connection c = pool.acquire();
+        try {
+            return work.run(c);
+        } finally {
+            pool.release(c);
+        }
+    }
+
+    <T> T write(SqlWork<T> work) throws SQLException {
+        long started = System.nanoTime();
+        Connection c = pool.acquire();
+        writeLock.lock();
+        try {
+            return work.run(c);
+        } finally {
+            writeLock.unlock();
+            pool.release(c);
+            metrics.dbWriteSeconds.observeNanos(System.nanoTime() - started);
+        }
+    }
+
+    private int userVersion() throws SQLException {
+        try (Statement s = conn.createStatement(); ResultSet rs = s.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Upgrades the schema in place, one step per version recorded in PRAGMA user_version.
+     * The check is repeated under an IMMEDIATE transaction so two processes opening the
+     * same file at once cannot both run a step.
+     */
+    private void migrate() throws SQLException {
+        if (userVersion() >= SCHEMA_VERSION) return;
         try (Statement s = conn.createStatement()) {
-            s.execute("CREATE TABLE IF NOT EXISTS jobs (" +
-                    "id TEXT PRIMARY KEY, command TEXT NOT NULL, state TEXT NOT NULL, attempts INTEGER NOT NULL DEFAULT 0," +
-                    "max_retries INTEGER NOT NULL DEFAULT 3, created_at TEXT, updated_at TEXT, next_run_at TEXT, last_error TEXT)");
-        }
-    }
-
-    public synchronized boolean insertJob(Job job) throws SQLException {
-        String sql = "INSERT INTO jobs(id,command,state,attempts,max_retries,created_at,updated_at,next_run_at,last_error) VALUES(?,?,?,?,?,?,?,?,?)";
-        try (PreparedStatement p = conn.prepareStatement(sql)) {
-            p.setString(1, job.id);
-            p.setString(2, job.command);
-            p.setString(3, job.state);
-            p.setInt(4, job.attempts);
-            p.setInt(5, job.maxRetries);
-            p.setString(6, job.createdAt);
-            p.setString(7, job.updatedAt);
-            p.setString(8, job.nextRunAt);
-            p.setString(9, job.lastError);
-            p.execute();
-            return true;
-        } catch (SQLException e) {
-            if (e.getMessage().contains("UNIQUE") || e.getMessage().contains("constraint")) return false;
-            throw e;
+            // new files only: lets the archiver hand the pages of archived jobs back to the file
+            // system. Opening in WAL mode already wrote the header, so the setting needs a VACUUM,
+            // which costs nothing while the file is still empty.
+            if (userVersion() == 0 && isEmpty(s)) {
+                s.execute("PRAGMA auto_vacuum=INCREMENTAL");
+                s.execute("VACUUM");
+            }
+            s.execute("BEGIN IMMEDIATE");
+            try {
+                int version = userVersion();
+                if (version < 1) migrateV1(s);
+                if (version < 2) migrateV2(s);
+                if (version < 3) migrateV3(s);
+                if (version < 4) migrateV4(s);
+                if (version < 5) migrateV5(s);
+                if (version < 6) migrateV6(s);
+                if (version < 7) migrateV7(s);
+                if (version < 8) migrateV8(s);
+                if (version < 9) migrateV9(s);
+                if (version < SCHEMA_VERSION) s.execute("PRAGMA user_version=" + SCHEMA_VERSION);
+                s.execute("COMMIT");
+            } catch (SQLException e) {
+                s.execute("ROLLBACK");
+                throw e;
+            }
         }
     }
 
-    public Optional<Job> claimPendingJob() throws SQLException {
-        conn.setAutoCommit(false);
-        try (PreparedStatement select = conn.prepareStatement(
-                "SELECT id,command,attempts,max_retries FROM jobs WHERE state='pending' AND (next_run_at IS NULL OR next_run_at <= ?) ORDER BY created_at LIMIT 1")) {
-            select.setString(1, Instant.now().toString());
-            ResultSet rs = select.executeQuery();
-            if (!rs.next()) {
-                conn.commit();
-                conn.setAutoCommit(true);
-                return Optional.empty();
+    /** Original layout with ISO-8601 TEXT timestamps; files created before versioning are already here. */
+    private void migrateV1(Statement s) throws SQLException {
+        s.execute("CREATE TABLE IF NOT EXISTS jobs (" +
+                "id TEXT PRIMARY KEY, command TEXT NOT NULL, state TEXT NOT NULL, attempts INTEGER NOT NULL DEFAULT 0," +
+                "max_retries INTEGER NOT NULL DEFAULT 3, created_at TEXT, updated_at TEXT, next_run_at TEXT, last_error TEXT)");
+        ensureColumn(s, "jobs", "worker_id", "TEXT");
+    }
+
+    /** Epoch-millis INTEGER timestamps and a partial covering index for the claim scan. */
+    private void migrateV2(Statement s) throws SQLException {
+        // a timestamp julianday() cannot read would otherwise become NULL, i.e. due at once and
+        // first in line; stop with the ids instead so they can be fixed or deleted by hand
+        List<String> unreadable = new ArrayList<>();
+        try (ResultSet rs = s.executeQuery("SELECT id FROM jobs WHERE julianday(created_at) IS NULL " +
+                "OR (updated_at IS NOT NULL AND julianday(updated_at) IS NULL) " +
+                "OR (next_run_at IS NOT NULL AND julianday(next_run_at) IS NULL) LIMIT 20")) {
+            while (rs.next()) unreadable.add(rs.getString(1));
+        }
+        if (!unreadable.isEmpty()) {
+            throw new SQLException("cannot upgrade the jobs table: unreadable created_at, updated_at or next_run_at " +
+                    "(expected ISO-8601) in jobs " + unreadable);
+        }
+        s.execute("CREATE TABLE jobs_v2 (" +
+                "id TEXT PRIMARY KEY, command TEXT NOT NULL, state TEXT NOT NULL, attempts INTEGER NOT NULL DEFAULT 0," +
+                "max_retries INTEGER NOT NULL DEFAULT 3, created_at INTEGER NOT NULL, updated_at INTEGER NOT NULL," +
+                "next_run_at INTEGER NOT NULL, last_error TEXT, worker_id TEXT)");
+        s.execute("INSERT INTO jobs_v2(id,command,state,attempts,max_retries,created_at,updated_at,next_run_at,last_error,worker_id) " +
+                "SELECT id,command,state,attempts,max_retries," + isoToMillis("created_at") + "," +
+                isoToMillis("COALESCE(updated_at, created_at)") + "," + isoToMillis("COALESCE(next_run_at, created_at)") +
+                ",last_error,worker_id FROM jobs");
+        s.execute("DROP TABLE jobs");
+        s.execute("ALTER TABLE jobs_v2 RENAME TO jobs");
+        s.execute("CREATE INDEX idx_jobs_pending_due ON jobs(next_run_at, created_at, id) WHERE state='pending'");
+    }
+
+    /**
+     * Per-state row counts kept by triggers, so status reads a handful of rows however large
+     * jobs grows. Triggers rather than Java bookkeeping so every writer, including older
+     * binaries and manual SQL, keeps them right. Every state gets its row up front, so the
+     * triggers are plain UPDATEs: an upsert per inserted job costs a bulk enqueue about a
+     * third of its throughput.
+     */
+    private void migrateV3(Statement s) throws SQLException {
+        s.execute("CREATE TABLE job_counts (state TEXT PRIMARY KEY, n INTEGER NOT NULL) WITHOUT ROWID");
+        s.execute("INSERT INTO job_counts(state, n) SELECT state, COUNT(*) FROM jobs GROUP BY state");
+        for (String state : STATES) s.execute("INSERT OR IGNORE INTO job_counts(state, n) VALUES ('" + state + "', 0)");
+        s.execute("CREATE TRIGGER jobs_count_insert AFTER INSERT ON jobs BEGIN " +
+                "UPDATE job_counts SET n = n + 1 WHERE state = NEW.state; END");
+        s.execute("CREATE TRIGGER jobs_count_delete AFTER DELETE ON jobs BEGIN " +
+                "UPDATE job_counts SET n = n - 1 WHERE state = OLD.state; END");
+        s.execute("CREATE TRIGGER jobs_count_update AFTER UPDATE OF state ON jobs WHEN OLD.state <> NEW.state BEGIN " +
+                "UPDATE job_counts SET n = n - 1 WHERE state = OLD.state; " +
+                "UPDATE job_counts SET n = n + 1 WHERE state = NEW.state; END");
+    }
+
+    /**
+     * Listing order within each state, so a keyset page is a range scan that can start streaming
+     * at once. A listing across all states merges one such range per state (see
+     * {@link #scan}) rather than keeping a second index over every row.
+     */
+    private void migrateV4(Statement s) throws SQLException {
+        s.execute("CREATE INDEX idx_jobs_state_created ON jobs(state, created_at, id)");
+    }
+
+    /**
+     * Leases: a claim records its owner and an expiry that the owner keeps pushing forward, so
+     * jobs of a worker process that died can be found and requeued. Jobs already processing
+     * get an expiry of 0, which the first reaper pass treats as expired.
+     */
+    private void migrateV5(Statement s) throws SQLException {
+        s.execute("ALTER TABLE jobs RENAME COLUMN worker_id TO lease_owner");
+        s.execute("ALTER TABLE jobs ADD COLUMN lease_expires_at INTEGER NOT NULL DEFAULT 0");
+        s.execute("CREATE INDEX idx_jobs_lease ON jobs(lease_expires_at) WHERE state='processing'");
+    }
+
+    /** Per-job run time limit; NULL falls back to the job_timeout_seconds config. */
+    private void migrateV6(Statement s) throws SQLException {
+        s.execute("ALTER TABLE jobs ADD COLUMN timeout_seconds INTEGER");
+    }
+
+    /**
+     * Named queues with a priority per job. The partial index is in claim order for one
+     * queue, so a claim seeks straight to the queue's best due job.
+     */
+    private void migrateV7(Statement s) throws SQLException {
+        s.execute("ALTER TABLE jobs ADD COLUMN queue TEXT NOT NULL DEFAULT 'default'");
+        s.execute("ALTER TABLE jobs ADD COLUMN priority INTEGER NOT NULL DEFAULT 0");
+        s.execute("CREATE INDEX idx_jobs_queue_due ON jobs(queue, priority DESC, next_run_at, created_at, id) WHERE state='pending'");
+    }
+
+    /**
+     * Archival: finished jobs in finish order, for the {@link Archiver} to page through, and
+     * the segments it has committed, so a crash between writing a segment and deleting its
+     * rows can be told apart from a finished pass.
+     */
+    private void migrateV8(Statement s) throws SQLException {
+        s.execute("CREATE INDEX idx_jobs_finished ON jobs(updated_at, id) WHERE state IN ('completed','dead')");
+        s.execute("CREATE TABLE archive_segments (name TEXT PRIMARY KEY, min_updated_at INTEGER NOT NULL, " +
+                "max_updated_at INTEGER NOT NULL, jobs INTEGER NOT NULL, created_at INTEGER NOT NULL)");
+    }
+
+    /**
+     * Result cache for jobs enqueued with cache_ttl (see {@link ResultCache}), and its hit,
+     * miss and eviction counters, shared by every process using the file.
+     */
+    private void migrateV9(Statement s) throws SQLException {
+        s.execute("ALTER TABLE jobs ADD COLUMN cache_ttl INTEGER");
+        s.execute("ALTER TABLE jobs ADD COLUMN cache_key TEXT");
+        s.execute("CREATE TABLE result_cache (key TEXT PRIMARY KEY, output TEXT NOT NULL, created_at INTEGER NOT NULL, " +
+                "expires_at INTEGER NOT NULL, last_used_at INTEGER NOT NULL)");
+        s.execute("CREATE INDEX idx_result_cache_used ON result_cache(last_used_at)");
+        s.execute("CREATE INDEX idx_result_cache_expires ON result_cache(expires_at)");
+        s.execute("CREATE TABLE cache_stats (name TEXT PRIMARY KEY, n INTEGER NOT NULL) WITHOUT ROWID");
+        s.execute("INSERT INTO cache_stats(name, n) VALUES ('hits', 0), ('misses', 0), ('evictions', 0)");
+    }
+
+    private static String isoToMillis(String expr) {
+        return "CAST(ROUND((julianday(" + expr + ") - 2440587.5) * 86400000) AS INTEGER)";
+    }
+
+    private static boolean isEmpty(Statement s) throws SQLException {
+        try (ResultSet rs = s.executeQuery("SELECT count(*) FROM sqlite_master")) {
+            return rs.next() && rs.getInt(1) == 0;
+        }
+    }
+
+    private static void ensureColumn(Statement s, String table, String column, String type) throws SQLException {
+        try (ResultSet rs = s.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) return;
             }
-            String id = rs.getString(1);
-            String cmd = rs.getString(2);
-            int attempts = rs.getInt(3);
-            int maxRetries = rs.getInt(4);
-
-            try (PreparedStatement upd = conn.prepareStatement("UPDATE jobs SET state='processing', attempts = attempts + 1, updated_at = ? WHERE id = ? AND state = 'pending'")) {
-                upd.setString(1, Instant.now().toString());
-                upd.setString(2, id);
-                int updated = upd.executeUpdate();
-                if (updated == 0) {
-                    conn.commit();
-                    conn.setAutoCommit(true);
-                    return Optional.empty();
+        }
+        s.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+    }
+
+    static Job readJob(ResultSet rs) throws SQLException {
+        int timeout = rs.getInt(10);
+        Integer timeoutSeconds = rs.wasNull() ? null : timeout;
+        int ttl = rs.getInt(13);
+        Integer cacheTtl = rs.wasNull() ? null : ttl;
+        return new Job(rs.getString(1), rs.getString(2), rs.getString(3), rs.getInt(4), rs.getInt(5),
+                rs.getLong(6), rs.getLong(7), rs.getLong(8), rs.getString(9), timeoutSeconds, rs.getString(11), rs.getInt(12),
+                cacheTtl, rs.getString(14));
+    }
+
+    public boolean insertJob(Job job) throws SQLException {
+        String sql = "INSERT INTO jobs(" + JOB_COLUMNS + ") VALUES(?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+        boolean inserted = write(c -> {
+            try (PreparedStatement p = c.prepareStatement(sql)) {
+                p.setString(1, job.id);
+                p.setString(2, job.command);
+                p.setString(3, job.state);
+                p.setInt(4, job.attempts);
+                p.setInt(5, job.maxRetries);
+                p.setLong(6, job.createdAt);
+                p.setLong(7, job.updatedAt);
+                p.setLong(8, job.nextRunAt);
+                p.setString(9, job.lastError);
+                p.setObject(10, job.timeoutSeconds);
+                p.setString(11, job.queue);
+                p.setInt(12, job.priority);
+                p.setObject(13, job.cacheTtl);
+                p.setString(14, job.cacheKey);
+                p.execute();
+                return true;
+            } catch (SQLException e) {
+                if (e.getMessage().contains("UNIQUE") || e.getMessage().contains("constraint")) return false;
+                throw e;
+            }
+        });
+        if (inserted) {
+            if (job.nextRunAt > Job.nowMillis()) schedule.add(job.nextRunAt);
+            wakeup.signal();
+        }
+        return inserted;
+    }
+
+    /**
+     * Inserts {@code jobs} in one transaction with INSERT OR IGNORE, so ids that already exist
+     * are skipped rather than failing the batch. Returns how many rows were actually inserted.
+     */
+    public int insertJobs(List<Job> jobs) throws SQLException {
+        if (jobs.isEmpty()) return 0;
+        String sql = "INSERT OR IGNORE INTO jobs(" + JOB_COLUMNS + ") VALUES(?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+        int[] counts = write(c -> {
+            c.setAutoCommit(false);
+            try (PreparedStatement p = c.prepareStatement(sql)) {
+                for (Job job : jobs) {
+                    p.setString(1, job.id);
+                    p.setString(2, job.command);
+                    p.setString(3, job.state);
+                    p.setInt(4, job.attempts);
+                    p.setInt(5, job.maxRetries);
+                    p.setLong(6, job.createdAt);
+                    p.setLong(7, job.updatedAt);
+                    p.setLong(8, job.nextRunAt);
+                    p.setString(9, job.lastError);
+                    p.setObject(10, job.timeoutSeconds);
+                    p.setString(11, job.queue);
+                    p.setInt(12, job.priority);
+                    p.setObject(13, job.cacheTtl);
+                    p.setString(14, job.cacheKey);
+                    p.addBatch();
                 }
+                int[] n = p.executeBatch();
+                c.commit();
+                return n;
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
             }
-            conn.commit();
-            conn.setAutoCommit(true);
-            Job job = new Job(id, cmd, "processing", attempts + 1, maxRetries, Instant.now().toString(), Instant.now().toString(), null, null);
-            return Optional.of(job);
-        } catch (SQLException ex) {
-            conn.rollback();
-            conn.setAutoCommit(true);
-            throw ex;
+        });
+        long now = Job.nowMillis();
+        int inserted = 0;
+        for (int i = 0; i < jobs.size(); i++) {
+            // 0 for an id that already existed; its due time is not ours to schedule
+            if (counts[i] == 0) continue;
+            inserted++;
+            Job job = jobs.get(i);
+            if (job.nextRunAt > now) schedule.add(job.nextRunAt);
         }
+        if (inserted > 0) wakeup.signal();
+        return inserted;
+    }
+
+    /** How long a claim stays valid without a {@link #renewLeases} from its owner. */
+    public void setLeaseMillis(long leaseMillis) {
+        this.leaseMillis = leaseMillis;
     }
 
-    public void markCompleted(String id, String output) throws SQLException {
-        try (PreparedStatement p = conn.prepareStatement("UPDATE jobs SET state='completed', updated_at=?, last_error=? WHERE id=?")) {
-            p.setString(1, Instant.now().toString());
-            p.setString(2, output);
-            p.setString(3, id);
-            p.execute();
+    /**
+     * Atomically moves up to {@code n} due pending jobs of {@code queue} at {@code priority} to
+     * processing and returns them in due order (next_run_at, then created_at). A single
+     * UPDATE ... RETURNING statement does the select and the state change, so concurrent
+     * claimers can never receive the same job. The subquery is one seek into
+     * idx_jobs_queue_due plus an in-order walk of the due jobs it returns; it is pinned there
+     * because the planner otherwise prefers idx_jobs_state_created for state='pending' and
+     * sorts every pending row, and the unary + keeps the outer state check off that index too.
+     * The jobs are leased to {@code owner} for the lease period. {@link #topDuePriority} says
+     * which priority to ask for.
+     */
+    public List<Job> claimPendingJobs(String owner, String queue, int priority, int n) throws SQLException {
+        List<Job> out = new ArrayList<>();
+        if (n <= 0) return out;
+        long now = Job.nowMillis();
+        String sql = "UPDATE jobs SET state='processing', attempts = attempts + 1, updated_at = ?, lease_owner = ?, lease_expires_at = ? " +
+                "WHERE id IN (SELECT id FROM jobs INDEXED BY idx_jobs_queue_due WHERE state='pending' AND queue = ? AND priority = ? " +
+                "AND next_run_at <= ? ORDER BY next_run_at, created_at LIMIT ?) " +
+                "AND +state='pending' RETURNING " + JOB_COLUMNS;
+        write(c -> {
+            try (PreparedStatement p = c.prepareStatement(sql)) {
+                p.setLong(1, now);
+                p.setString(2, owner);
+                p.setLong(3, now + leaseMillis);
+                p.setString(4, queue);
+                p.setInt(5, priority);
+                p.setLong(6, now);
+                p.setInt(7, n);
+                try (ResultSet rs = p.executeQuery()) {
+                    while (rs.next()) out.add(readJob(rs));
+                }
+            }
+            return null;
+        });
+        for (Job j : out) inFlight.put(j.id, j.attempts);
+        // RETURNING does not preserve the subquery's ORDER BY
+        out.sort(Comparator.comparingLong((Job j) -> j.nextRunAt).thenComparingLong(j -> j.createdAt));
+        return out;
+    }
+
+    /**
+     * The highest priority in {@code queue} that has a job due now, or null if nothing is due.
+     * A read, so probing an idle queue costs no write transaction. It walks the queue's
+     * distinct priorities from the top, one seek each on idx_jobs_queue_due, and checks each
+     * for a due job with one more seek; delayed jobs are never visited one by one, so the cost
+     * is O(log n) per priority level above the answer, however many jobs are waiting.
+     */
+    public Integer topDuePriority(String queue) throws SQLException {
+        long now = Job.nowMillis();
+        return read(c -> {
+            try (PreparedStatement p = c.prepareStatement("WITH RECURSIVE levels(pr) AS (" +
+                    "SELECT (SELECT MAX(priority) FROM jobs INDEXED BY idx_jobs_queue_due WHERE state='pending' AND queue = ?1) " +
+                    "UNION ALL SELECT (SELECT MAX(priority) FROM jobs INDEXED BY idx_jobs_queue_due WHERE state='pending' AND queue = ?1 " +
+                    "AND priority < levels.pr) FROM levels WHERE levels.pr IS NOT NULL) " +
+                    "SELECT pr FROM levels WHERE pr IS NOT NULL AND EXISTS (SELECT 1 FROM jobs INDEXED BY idx_jobs_queue_due " +
+                    "WHERE state='pending' AND queue = ?1 AND priority = levels.pr AND next_run_at <= ?2) LIMIT 1")) {
+                p.setString(1, queue);
+                p.setLong(2, now);
+                try (ResultSet rs = p.executeQuery()) {
+                    return rs.next() ? rs.getInt(1) : null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Names of the queues that have pending jobs, in name order. A loose index scan: one seek
+     * per queue on idx_jobs_queue_due instead of reading every pending row.
+     */
+    public List<String> pendingQueues() throws SQLException {
+        return read(c -> {
+            List<String> out = new ArrayList<>();
+            try (Statement s = c.createStatement(); ResultSet rs = s.executeQuery(
+                    "WITH RECURSIVE q(name) AS (" +
+                    "SELECT (SELECT MIN(queue) FROM jobs INDEXED BY idx_jobs_queue_due WHERE state='pending') " +
+                    "UNION ALL SELECT (SELECT MIN(queue) FROM jobs INDEXED BY idx_jobs_queue_due WHERE state='pending' AND queue > q.name) " +
+                    "FROM q WHERE q.name IS NOT NULL) SELECT name FROM q WHERE name IS NOT NULL")) {
+                while (rs.next()) out.add(rs.getString(1));
+            }
+            return out;
+        });
+    }
+
+    /** Hands claimed-but-unstarted jobs back to the queue without consuming an attempt. */
+    public void releaseClaims(String owner, List<Job> jobs) throws SQLException {
+        if (jobs.isEmpty()) return;
+        try {
+            write(c -> {
+                try (PreparedStatement p = c.prepareStatement("UPDATE jobs SET state='pending', attempts = attempts - 1, updated_at=?, " +
+                        "lease_owner=NULL, lease_expires_at=0 WHERE id=? AND state='processing' AND lease_owner=? AND attempts=?")) {
+                    long now = Job.nowMillis();
+                    for (Job job : jobs) {
+                        p.setLong(1, now);
+                        p.setString(2, job.id);
+                        p.setString(3, owner);
+                        p.setInt(4, job.attempts);
+                        p.addBatch();
+                    }
+                    p.executeBatch();
+                }
+                return null;
+            });
+        } finally {
+            // released, or left for the reaper if the release failed
+            for (Job job : jobs) forgetClaim(job.id, job.attempts);
         }
+        wakeup.signal();
     }
 
-    public void markFailedRetry(String id, String error, long delaySeconds) throws SQLException {
-        Instant next = Instant.now().plus(delaySeconds, ChronoUnit.SECONDS);
-        try (PreparedStatement p = conn.prepareStatement("UPDATE jobs SET state='pending', updated_at=?, next_run_at=?, last_error=? WHERE id=?")) {
-            p.setString(1, Instant.now().toString());
-            p.setString(2, next.toString());
-            p.setString(3, error);
-            p.setString(4, id);
-            p.execute();
+    /**
+     * Stops renewing the lease of one claim without writing anything, so the reaper requeues
+     * it once the lease runs out. For claims whose outcome could not be written, and for the
+     * unstarted jobs of a worker that died.
+     */
+    public void forgetClaim(String id, int attempt) {
+        inFlight.remove(id, attempt);
+    }
+
+    /**
+     * Extends the leases of the claims this process is still working on, in one transaction.
+     * Returns how many were renewed; claims already reaped or finished elsewhere are skipped.
+     */
+    public int renewLeases(String owner) throws SQLException {
+        List<Map.Entry<String, Integer>> claims = new ArrayList<>(inFlight.entrySet());
+        if (claims.isEmpty()) return 0;
+        long until = Job.nowMillis() + leaseMillis;
+        return write(c -> {
+            c.setAutoCommit(false);
+            try (PreparedStatement p = c.prepareStatement("UPDATE jobs SET lease_expires_at=? " +
+                    "WHERE id=? AND state='processing' AND lease_owner=? AND attempts=?")) {
+                for (Map.Entry<String, Integer> claim : claims) {
+                    p.setLong(1, until);
+                    p.setString(2, claim.getKey());
+                    p.setString(3, owner);
+                    p.setInt(4, claim.getValue());
+                    p.addBatch();
+                }
+                int n = 0;
+                for (int count : p.executeBatch()) n += count;
+                c.commit();
+                return n;
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        });
+    }
+
+    /**
+     * Requeues processing jobs whose lease ran out, because their owner died or lost the
+     * database for a whole lease period. The lost run counts as an attempt, so a job that keeps
+     * killing its worker ends in the DLQ. Returns the ids affected; the retries and DLQ moves
+     * are counted in {@link #metrics} under worker="lease".
+     */
+    public List<String> reapExpiredLeases() throws SQLException {
+        long now = Job.nowMillis();
+        int[] dead = {0};
+        List<String> ids = write(c -> {
+            List<String> out = new ArrayList<>();
+            // SET expressions see the row as it was, so last_error still names the old owner
+            try (PreparedStatement p = c.prepareStatement("UPDATE jobs INDEXED BY idx_jobs_lease " +
+                    "SET state = CASE WHEN attempts >= max_retries THEN 'dead' ELSE 'pending' END, " +
+                    "updated_at=?1, next_run_at=?1, lease_owner=NULL, lease_expires_at=0, " +
+                    "last_error='lease of ' || COALESCE(lease_owner, '?') || ' expired' " +
+                    "WHERE state='processing' AND lease_expires_at < ?1 RETURNING id, state")) {
+                p.setLong(1, now);
+                try (ResultSet rs = p.executeQuery()) {
+                    while (rs.next()) {
+                        out.add(rs.getString(1));
+                        if ("dead".equals(rs.getString(2))) dead[0]++;
+                    }
+                }
+            }
+            return out;
+        });
+        if (!ids.isEmpty()) {
+            metrics.dead.get("lease").add(dead[0]);
+            metrics.retried.get("lease").add(ids.size() - dead[0]);
+            wakeup.signal();
         }
+        return ids;
+    }
+
+    /**
+     * One finished attempt's state change; nextRunAt is set only for retries. With an owner the
+     * update only applies while that owner still holds the lease of this very claim (same
+     * attempt number), so an attempt whose job was reaped and claimed again, by another
+     * process or by this one, cannot overwrite the new attempt.
+     */
+    static final class Transition {
+        final String id;
+        final String owner;
+        final int attempt;
+        final String state;
+        final long at;
+        final Long nextRunAt;
+        final String text;
+
+        Transition(String id, String owner, int attempt, String state, long at, Long nextRunAt, String text) {
+            this.id = id;
+            this.owner = owner;
+            this.attempt = attempt;
+            this.state = state;
+            this.at = at;
+            this.nextRunAt = nextRunAt;
+            this.text = text;
+        }
+    }
+
+    /**
+     * From now on, mark* calls hand their update to a background writer that commits them in
+     * groups of up to {@code maxBatch}, waiting at most {@code lingerMillis} for a group to fill.
+     * The calls then return before the update is durable; {@link #stopGroupCommit} flushes.
+     */
+    public synchronized void startGroupCommit(int maxBatch, long lingerMillis) {
+        if (committer == null) committer = new GroupCommitter(this, maxBatch, lingerMillis);
     }
 
-    public void markDead(String id, String error) throws SQLException {
-        try (PreparedStatement p = conn.prepareStatement("UPDATE jobs SET state='dead', updated_at=?, last_error=? WHERE id=?")) {
-            p.setString(1, Instant.now().toString());
-            p.setString(2, error);
-            p.setString(3, id);
-            p.execute();
+    /** Commits everything handed over so far and returns to one transaction per mark* call. */
+    public void stopGroupCommit() {
+        GroupCommitter c;
+        synchronized (this) {
+            c = committer;
+            committer = null;
         }
+        if (c != null) c.close();
+    }
+
+    /** PRAGMA synchronous for job traffic: NORMAL syncs the WAL at checkpoints, FULL at every commit. */
+    public void setSynchronous(String mode) throws SQLException {
+        pool.setSynchronous(mode);
+    }
+
+    /**
+     * The mark* calls take the job as it was claimed and apply only while {@code owner} holds
+     * the lease of that claim; a null owner skips that check.
+     */
+    public void markCompleted(Job job, String owner, String output) throws SQLException {
+        transition(new Transition(job.id, owner, job.attempts, "completed", Job.nowMillis(), null, output));
+    }
+
+    public void markFailedRetry(Job job, String owner, String error, long delaySeconds) throws SQLException {
+        long now = Job.nowMillis();
+        transition(new Transition(job.id, owner, job.attempts, "pending", now, now + delaySeconds * 1000L, error));
+    }
+
+    public void markDead(Job job, String owner, String error) throws SQLException {
+        transition(new Transition(job.id, owner, job.attempts, "dead", Job.nowMillis(), null, error));
+    }
+
+    private void transition(Transition t) throws SQLException {
+        GroupCommitter c = committer;
+        if (c != null && c.submit(t)) return;
+        try {
+            applyTransitions(List.of(t));
+        } catch (SQLException e) {
+            // the job stays in processing; let its lease lapse so the reaper takes it back
+            forgetClaim(t.id, t.attempt);
+            throw e;
+        }
+    }
+
+    /** Writes {@code batch} in one transaction, then wakes workers for any retries it contains. */
+    void applyTransitions(List<Transition> batch) throws SQLException {
+        int[] applied = write(c -> {
+            boolean single = batch.size() == 1;
+            if (!single) c.setAutoCommit(false);
+            try (PreparedStatement p = c.prepareStatement(
+                    "UPDATE jobs SET state=?1, updated_at=?2, next_run_at=COALESCE(?3, next_run_at), last_error=?4, lease_expires_at=0 " +
+                    "WHERE id=?5 AND (?6 IS NULL OR (state='processing' AND lease_owner=?6 AND attempts=?7))")) {
+                for (Transition t : batch) {
+                    p.setString(1, t.state);
+                    p.setLong(2, t.at);
+                    p.setObject(3, t.nextRunAt);
+                    p.setString(4, t.text);
+                    p.setString(5, t.id);
+                    p.setString(6, t.owner);
+                    p.setInt(7, t.attempt);
+                    if (single) return new int[]{p.executeUpdate()};
+                    p.addBatch();
+                }
+                int[] counts = p.executeBatch();
+                c.commit();
+                return counts;
+            } catch (SQLException e) {
+                if (!single) c.rollback();
+                throw e;
+            } finally {
+                if (!single) c.setAutoCommit(true);
+            }
+        });
+        boolean retries = false;
+        for (int i = 0; i < batch.size(); i++) {
+            Transition t = batch.get(i);
+            forgetClaim(t.id, t.attempt);
+            if (applied[i] == 0) {
+                Log.warn("job " + t.id + ": lease of " + t.owner + " on attempt " + t.attempt + " no longer held, dropped its '" + t.state + "' update");
+                continue;
+            }
+            if (t.nextRunAt != null) {
+                schedule.add(t.nextRunAt);
+                retries = true;
+            }
+        }
+        if (retries) wakeup.signal();
+    }
+
+    /**
+     * Hands free pages back to the file system, a slice per write so claims are not held up
+     * behind one long vacuum. Files created before auto_vacuum=INCREMENTAL was set by
+     * {@link #migrate()} keep their free pages for reuse instead; see the README.
+     */
+    public void incrementalVacuum() throws SQLException {
+        boolean incremental = read(c -> {
+            try (Statement s = c.createStatement(); ResultSet rs = s.executeQuery("PRAGMA auto_vacuum")) {
+                return rs.next() && rs.getInt(1) == 2;
+            }
+        });
+        if (!incremental) return;
+        while (write(c -> {
+            try (Statement s = c.createStatement()) {
+                // the pragma frees one page per step and execute() steps once; executeUpdate()
+                // runs it to the end (the driver will not open a ResultSet on it, it has no columns)
+                s.executeUpdate("PRAGMA incremental_vacuum(2000)");
+                try (ResultSet rs = s.executeQuery("PRAGMA freelist_count")) {
+                    return rs.next() && rs.getLong(1) > 0;
+                }
+            }
+        })) { }
+    }
+
+    /** Earliest due times of pending jobs that are not yet due, read from idx_jobs_pending_due. */
+    public List<Long> upcomingDueTimes(long after, int limit) throws SQLException {
+        return read(c -> {
+            List<Long> out = new ArrayList<>();
+            try (PreparedStatement p = c.prepareStatement("SELECT next_run_at FROM jobs INDEXED BY idx_jobs_pending_due WHERE state='pending' AND next_run_at > ? ORDER BY next_run_at LIMIT ?")) {
+                p.setLong(1, after);
+                p.setInt(2, limit);
+                ResultSet rs = p.executeQuery();
+                while (rs.next()) out.add(rs.getLong(1));
+            }
+            return out;
+        });
+    }
+
+    public Long nextDueAfter(long after) throws SQLException {
+        List<Long> next = upcomingDueTimes(after, 1);
+        return next.isEmpty() ? null : next.get(0);
+    }
+
+    /** Number of jobs in each state, from the trigger-maintained job_counts table. */
+    public Map<String, Long> countByState() throws SQLException {
+        return read(c -> {
+            Map<String, Long> out = new LinkedHashMap<>();
+            try (Statement s = c.createStatement(); ResultSet rs = s.executeQuery("SELECT state, n FROM job_counts")) {
+                while (rs.next()) out.put(rs.getString(1), rs.getLong(2));
+            }
+            return out;
+        });
     }
 
     public List<Job> listByState(String state) throws SQLException {
         List<Job> out = new ArrayList<>();
-        String q = state == null ? "SELECT id,command,state,attempts,max_retries,created_at,updated_at,next_run_at,last_error FROM jobs ORDER BY created_at" :
-                "SELECT id,command,state,attempts,max_retries,created_at,updated_at,next_run_at,last_error FROM jobs WHERE state=? ORDER BY created_at";
-        try (PreparedStatement p = conn.prepareStatement(q)) {
-            if (state != null) p.setString(1, state);
-            ResultSet rs = p.executeQuery();
-            while (rs.next()) {
-                out.add(new Job(rs.getString(1), rs.getString(2), rs.getString(3), rs.getInt(4), rs.getInt(5),
-                        rs.getString(6), rs.getString(7), rs.getString(8), rs.getString(9)));
+        scan(new JobQuery(state), out::add);
+        return out;
+    }
+
+    /**
+     * Streams the rows matching {@code q} in (created_at, id) order to {@code visitor}, holding
+     * at most one page of rows at a time. Returns the number of rows visited. Each page is read
+     * and its connection released before the rows are visited, so a slow visitor (a daemon
+     * client that stops reading) never pins a pooled connection; pages continue from the last
+     * row seen, the same keyset a --after listing uses.
+     */
+    public long scan(JobQuery q, JobVisitor visitor) throws SQLException {
+        long n = 0;
+        Long afterCreatedAt = q.afterCreatedAt;
+        String afterId = q.afterId;
+        while (true) {
+            int want = q.limit > 0 ? (int) Math.min(SCAN_PAGE, q.limit - n) : SCAN_PAGE;
+            List<Job> page = scanPage(q, afterCreatedAt, afterId, want);
+            for (Job job : page) {
+                n++;
+                if (!visitor.visit(job)) return n;
             }
+            if (page.size() < want || (q.limit > 0 && n >= q.limit)) return n;
+            Job last = page.get(page.size() - 1);
+            afterCreatedAt = last.createdAt;
+            afterId = last.id;
         }
-        return out;
     }
 
-    public Optional<Job> getDeadJob(String id) throws SQLException {
-        try (PreparedStatement p = conn.prepareStatement("SELECT id,command,state,attempts,max_retries,created_at,updated_at,next_run_at,last_error FROM jobs WHERE id = ? AND state = 'dead'")) {
-            p.setString(1, id);
-            ResultSet rs = p.executeQuery();
-            if (rs.next()) {
-                return Optional.of(new Job(rs.getString(1), rs.getString(2), rs.getString(3), rs.getInt(4), rs.getInt(5),
-                        rs.getString(6), rs.getString(7), rs.getString(8), rs.getString(9)));
+    private List<Job> scanPage(JobQuery q, Long afterCreatedAt, String afterId, int limit) throws SQLException {
+        List<Object> params = new ArrayList<>();
+        String sql;
+        if (q.state != null) {
+            sql = scanRange(q, q.state, afterCreatedAt, afterId, limit, params);
+        } else {
+            // one range of idx_jobs_state_created per state, each cut at the page size, merged
+            StringBuilder union = new StringBuilder();
+            for (String state : STATES) {
+                if (union.length() > 0) union.append(" UNION ALL ");
+                union.append("SELECT * FROM (").append(scanRange(q, state, afterCreatedAt, afterId, limit, params)).append(')');
             }
-            return Optional.empty();
+            sql = union.append(" ORDER BY created_at, id LIMIT ?").toString();
+            params.add(limit);
         }
+        return read(c -> {
+            List<Job> out = new ArrayList<>(Math.min(limit, SCAN_PAGE));
+            try (PreparedStatement p = c.prepareStatement(sql)) {
+                for (int i = 0; i < params.size(); i++) p.setObject(i + 1, params.get(i));
+                ResultSet rs = p.executeQuery();
+                while (rs.next()) out.add(readJob(rs));
+            }
+            return out;
+        });
     }
 
-    public void retryDeadJob(String id) throws SQLException {
-        try (PreparedStatement p = conn.prepareStatement("UPDATE jobs SET state='pending', attempts=0, updated_at=?, next_run_at=? WHERE id=? AND state='dead'")) {
-            String now = Instant.now().toString();
-            p.setString(1, now);
-            p.setString(2, now);
-            p.setString(3, id);
-            p.execute();
+    private static String scanRange(JobQuery q, String state, Long afterCreatedAt, String afterId, int limit, List<Object> params) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(JOB_COLUMNS).append(" FROM jobs WHERE state = ?");
+        params.add(state);
+        if (q.queue != null) { sql.append(" AND queue = ?"); params.add(q.queue); }
+        if (afterCreatedAt != null && afterId != null) {
+            sql.append(" AND (created_at, id) > (?, ?)");
+            params.add(afterCreatedAt);
+            params.add(afterId);
+        } else if (afterCreatedAt != null) {
+            sql.append(" AND created_at > ?");
+            params.add(afterCreatedAt);
         }
+        if (q.createdFrom != null) { sql.append(" AND created_at >= ?"); params.add(q.createdFrom); }
+        if (q.createdTo != null) { sql.append(" AND created_at < ?"); params.add(q.createdTo); }
+        if (q.minAttempts != null) { sql.append(" AND attempts >= ?"); params.add(q.minAttempts); }
+        if (q.maxAttempts != null) { sql.append(" AND attempts <= ?"); params.add(q.maxAttempts); }
+        sql.append(" ORDER BY created_at, id LIMIT ?");
+        params.add(limit);
+        return sql.toString();
+    }
+
+    public Optional<Job> findJob(String id) throws SQLException {
+        return read(c -> {
+            try (PreparedStatement p = c.prepareStatement("SELECT " + JOB_COLUMNS + " FROM jobs WHERE id = ?")) {
+                p.setString(1, id);
+                ResultSet rs = p.executeQuery();
+                return rs.next() ? Optional.of(readJob(rs)) : Optional.empty();
+            }
+        });
+    }
+
+    public Optional<Job> getDeadJob(String id) throws SQLException {
+        return read(c -> {
+            try (PreparedStatement p = c.prepareStatement("SELECT " + JOB_COLUMNS + " FROM jobs WHERE id = ? AND state = 'dead'")) {
+                p.setString(1, id);
+                ResultSet rs = p.executeQuery();
+                if (rs.next()) {
+                    return Optional.of(readJob(rs));
+                }
+                return Optional.empty();
+            }
+        });
+    }
+
+    public void retryDeadJob(String id) throws SQLException {
+        write(c -> {
+            try (PreparedStatement p = c.prepareStatement("UPDATE jobs SET state='pending', attempts=0, updated_at=?, next_run_at=? WHERE id=? AND state='dead'")) {
+                long now = Job.nowMillis();
+                p.setLong(1, now);
+                p.setLong(2, now);
+                p.setString(3, id);
+                p.execute();
+            }
+            return null;
+        });
+        wakeup.signal();
     }
 }
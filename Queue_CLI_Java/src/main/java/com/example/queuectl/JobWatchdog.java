@@ -0,0 +1,71 @@
+package com.example.queuectl;
+
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Enforces job timeouts for the whole process with one scheduler thread, instead of a
+ * waiting thread per running job. A job that overruns gets its process tree terminated;
+ * anything still alive after {@link #GRACE_MILLIS} is killed outright. For a job running
+ * inside a {@link PersistentShell} only the shell's children are killed, not the shell.
+ */
+final class JobWatchdog {
+    static final long GRACE_MILLIS = 5000;
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "queuectl-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        // most jobs finish in time; drop their deadlines instead of letting them pile up
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    /** A pending deadline for one process. */
+    static final class Watch {
+        private final ScheduledFuture<?> deadline;
+        private volatile boolean fired;
+
+        private Watch(ProcessHandle root, boolean killRoot, long timeoutMillis) {
+            this.deadline = timeoutMillis <= 0 ? null
+                    : TIMER.schedule(() -> expire(root, killRoot), timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void expire(ProcessHandle root, boolean killRoot) {
+            if (!root.isAlive()) return;
+            // snapshot first: once bash dies its children are re-parented and drop out of descendants()
+            List<ProcessHandle> tree = root.descendants().collect(Collectors.toList());
+            if (!killRoot && tree.isEmpty()) return;
+            fired = true;
+            tree.forEach(ProcessHandle::destroy);
+            if (killRoot) root.destroy();
+            TIMER.schedule(() -> {
+                tree.forEach(ProcessHandle::destroyForcibly);
+                if (killRoot) root.destroyForcibly();
+            }, GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        /** Called once the process has exited; true if it was the watchdog that ended it. */
+        boolean cancel() {
+            if (deadline != null) deadline.cancel(false);
+            return fired;
+        }
+    }
+
+    private JobWatchdog() {
+    }
+
+    /** Starts the clock on {@code proc}; a non-positive timeout means no limit. */
+    static Watch watch(Process proc, long timeoutMillis) {
+        return new Watch(proc.toHandle(), true, timeoutMillis);
+    }
+
+    /** Like {@link #watch} but on overrun only kills {@code shell}'s descendants. */
+    static Watch watchChildren(Process shell, long timeoutMillis) {
+        return new Watch(shell.toHandle(), false, timeoutMillis);
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.queuectl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader for job specs. Objects become LinkedHashMaps, arrays Lists, numbers
+ * Long or Double, and literals Boolean or null.
+ */
+public final class Json {
+    private final String s;
+    private int pos;
+
+    private Json(String s) {
+        this.s = s;
+    }
+
+    public static Map<String, Object> parseObject(String text) {
+        Json p = new Json(text);
+        p.skipWs();
+        Object v = p.value();
+        p.skipWs();
+        if (p.pos != p.s.length()) throw p.error("trailing characters");
+        if (!(v instanceof Map)) throw new IllegalArgumentException("expected a JSON object");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> m = (Map<String, Object>) v;
+        return m;
+    }
+
+    private IllegalArgumentException error(String msg) {
+        return new IllegalArgumentException(msg + " at offset " + pos);
+    }
+
+    private void skipWs() {
+        while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+    }
+
+    private char peek() {
+        if (pos >= s.length()) throw error("unexpected end of input");
+        return s.charAt(pos);
+    }
+
+    private void expect(char c) {
+        if (peek() != c) throw error("expected '" + c + "'");
+        pos++;
+    }
+
+    private Object value() {
+        char c = peek();
+        switch (c) {
+            case '{': return object();
+            case '[': return array();
+            case '"': return string();
+            case 't': return literal("true", Boolean.TRUE);
+            case 'f': return literal("false", Boolean.FALSE);
+            case 'n': return literal("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return number();
+                throw error("unexpected '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        expect('{');
+        skipWs();
+        if (peek() == '}') {
+            pos++;
+            return m;
+        }
+        while (true) {
+            skipWs();
+            String key = string();
+            skipWs();
+            expect(':');
+            skipWs();
+            m.put(key, value());
+            skipWs();
+            if (peek() == ',') {
+                pos++;
+                continue;
+            }
+            expect('}');
+            return m;
+        }
+    }
+
+    private List<Object> array() {
+        List<Object> l = new ArrayList<>();
+        expect('[');
+        skipWs();
+        if (peek() == ']') {
+            pos++;
+            return l;
+        }
+        while (true) {
+            skipWs();
+            l.add(value());
+            skipWs();
+            if (peek() == ',') {
+                pos++;
+                continue;
+            }
+            expect(']');
+            return l;
+        }
+    }
+
+    private String string() {
+        expect('"');
+        StringBuilder sb = null;
+        int start = pos;
+        while (true) {
+            char c = peek();
+            if (c == '"') {
+                String tail = s.substring(start, pos++);
+                return sb == null ? tail : sb.append(tail).toString();
+            }
+            if (c != '\\') {
+                pos++;
+                continue;
+            }
+            if (sb == null) sb = new StringBuilder();
+            sb.append(s, start, pos);
+            pos++;
+            char e = peek();
+            pos++;
+            switch (e) {
+                case '"': sb.append('"'); break;
+                case '\\': sb.append('\\'); break;
+                case '/': sb.append('/'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (pos + 4 > s.length()) throw error("bad unicode escape");
+                    sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default: throw error("bad escape '\\" + e + "'");
+            }
+            start = pos;
+        }
+    }
+
+    private Object literal(String word, Object v) {
+        if (!s.startsWith(word, pos)) throw error("unexpected token");
+        pos += word.length();
+        return v;
+    }
+
+    private Object number() {
+        int start = pos;
+        boolean fractional = false;
+        while (pos < s.length()) {
+            char c = s.charAt(pos);
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+') {
+                pos++;
+            } else if (c == '.' || c == 'e' || c == 'E') {
+                fractional = true;
+                pos++;
+            } else {
+                break;
+            }
+        }
+        String n = s.substring(start, pos);
+        try {
+            return fractional ? (Object) Double.parseDouble(n) : (Object) Long.parseLong(n);
+        } catch (NumberFormatException e) {
+            throw error("bad number '" + n + "'");
+        }
+    }
+}
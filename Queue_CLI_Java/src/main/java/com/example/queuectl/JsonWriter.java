@@ -0,0 +1,75 @@
+package com.example.queuectl;
+
+import java.io.IOException;
+
+/**
+ * Streaming JSON encoder for flat objects, the write-side counterpart of {@link Json}.
+ * Strings are escaped as they are copied, in runs, so a row costs no intermediate buffers.
+ */
+public final class JsonWriter {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Appendable out;
+    private boolean first;
+
+    public JsonWriter(Appendable out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        out.append('{');
+        first = true;
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        out.append('}');
+        return this;
+    }
+
+    public JsonWriter field(String name, String value) throws IOException {
+        name(name);
+        if (value == null) out.append("null");
+        else string(out, value);
+        return this;
+    }
+
+    public JsonWriter field(String name, long value) throws IOException {
+        name(name);
+        out.append(Long.toString(value));
+        return this;
+    }
+
+    private void name(String name) throws IOException {
+        if (!first) out.append(',');
+        first = false;
+        string(out, name);
+        out.append(':');
+    }
+
+    /** Writes {@code s} as a quoted JSON string. */
+    public static void string(Appendable out, String s) throws IOException {
+        out.append('"');
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != 0x2028 && c != 0x2029) continue;
+            out.append(s, start, i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                case '\b': out.append("\\b"); break;
+                case '\f': out.append("\\f"); break;
+                default:
+                    out.append("\\u").append(HEX[c >> 12 & 0xF]).append(HEX[c >> 8 & 0xF])
+                            .append(HEX[c >> 4 & 0xF]).append(HEX[c & 0xF]);
+            }
+            start = i + 1;
+        }
+        out.append(s, start, s.length());
+        out.append('"');
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.queuectl;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps this process's leases alive and requeues everyone's expired ones. Every third of a
+ * lease period it renews the claims this process is still working on, in one transaction,
+ * then reaps expired leases through idx_jobs_lease. Each worker process runs one, so a queue keeps
+ * recovering as long as any worker is up.
+ */
+public class LeaseKeeper {
+    private final JobStore store;
+    private final String owner;
+    private final long periodMillis;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "queuectl-lease");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public LeaseKeeper(JobStore store, String owner, long leaseMillis) {
+        this.store = store;
+        this.owner = owner;
+        this.periodMillis = Math.max(100, leaseMillis / 3);
+    }
+
+    public void start() {
+        timer.scheduleWithFixedDelay(this::tick, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void tick() {
+        try {
+            store.renewLeases(owner);
+            List<String> reaped = store.reapExpiredLeases();
+            if (!reaped.isEmpty()) {
+                Log.warn("[lease] requeued " + reaped.size() + " jobs with expired leases: " + reaped);
+            }
+        } catch (Exception e) {
+            // the next tick retries; leases only lapse if this keeps failing for a whole period
+            Log.warn("[lease] heartbeat failed: " + e);
+        }
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+}
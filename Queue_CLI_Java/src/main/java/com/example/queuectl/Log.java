@@ -0,0 +1,130 @@
+package com.example.queuectl;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Worker log. Callers only enqueue a line; a daemon thread writes whatever has piled up to
+ * System.out in one go, so a slow terminal no longer stalls the workers. When the queue is
+ * full, lines are dropped and counted rather than blocking a worker.
+ */
+public final class Log {
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final BlockingQueue<String> QUEUE = new ArrayBlockingQueue<>(16_384);
+    /** Lines lost to a full queue; exported as queuectl_log_dropped_total. */
+    public static final LongAdder DROPPED = new LongAdder();
+    // queued or being written; flush() waits for this to reach zero
+    private static final AtomicLong UNWRITTEN = new AtomicLong();
+    private static volatile Level level = Level.INFO;
+
+    static {
+        Thread writer = new Thread(Log::drainLoop, "queuectl-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private Log() {
+    }
+
+    /** Sets the level from a config value (debug, info, warn, error); unknown values keep the current one. */
+    public static void setLevel(String name) {
+        try {
+            level = Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("unknown log_level: " + name);
+        }
+    }
+
+    public static boolean enabled(Level l) {
+        return l.compareTo(level) >= 0;
+    }
+
+    public static void debug(String line) {
+        log(Level.DEBUG, line);
+    }
+
+    public static void info(String line) {
+        log(Level.INFO, line);
+    }
+
+    public static void warn(String line) {
+        log(Level.WARN, line);
+    }
+
+    public static void error(String line) {
+        log(Level.ERROR, line);
+    }
+
+    /** {@code line} followed by {@code t}; at debug level with its stack trace, rendered only then. */
+    public static void warn(String line, Throwable t) {
+        log(Level.WARN, line, t);
+    }
+
+    /** As {@link #warn(String, Throwable)}, at error level. */
+    public static void error(String line, Throwable t) {
+        log(Level.ERROR, line, t);
+    }
+
+    private static void log(Level l, String line, Throwable t) {
+        if (!enabled(l)) return;
+        if (!enabled(Level.DEBUG)) {
+            log(l, line + ": " + t);
+            return;
+        }
+        StringWriter trace = new StringWriter();
+        t.printStackTrace(new PrintWriter(trace));
+        log(l, line + ": " + trace.toString().stripTrailing());
+    }
+
+    private static void log(Level l, String line) {
+        if (!enabled(l)) return;
+        UNWRITTEN.incrementAndGet();
+        if (!QUEUE.offer(line)) {
+            UNWRITTEN.decrementAndGet();
+            DROPPED.increment();
+        }
+    }
+
+    private static void drainLoop() {
+        List<String> lines = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            try {
+                String first = QUEUE.poll(1, TimeUnit.SECONDS);
+                if (first == null) continue;
+                lines.add(first);
+                QUEUE.drainTo(lines, 1024);
+                for (String l : lines) sb.append(l).append(System.lineSeparator());
+                System.out.print(sb);
+                System.out.flush();
+                UNWRITTEN.addAndGet(-lines.size());
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lines.clear();
+                sb.setLength(0);
+            }
+        }
+    }
+
+    /** Waits up to {@code timeoutMillis} for queued lines to be written; called on shutdown. */
+    public static void flush(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (UNWRITTEN.get() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+        System.out.flush();
+    }
+}
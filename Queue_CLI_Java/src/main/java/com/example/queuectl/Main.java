@@ -1,20 +1,222 @@
 package com.example.queuectl;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public class Main {
+    static final String DB_PATH = "queue.db";
+    // a daemon's socket; QUEUECTL_SOCKET points clients and --listen elsewhere
+    static final String SOCKET_PATH = System.getenv().getOrDefault("QUEUECTL_SOCKET", "queue.sock");
 
     static void usage() {
         System.out.println("queuectl commands:");
-        System.out.println("  enqueue '{\"id\":\"job1\",\"command\":\"echo hi\",\"max_retries\":3}'");
-        System.out.println("  worker start <count>");
-        System.out.println("  status");
-        System.out.println("  list [state]");
-        System.out.println("  dlq list");
+        System.out.println("  enqueue '{\"id\":\"job1\",\"command\":\"echo hi\",\"max_retries\":3,\"run_at\":\"2030-01-01T00:00:00Z\",\"timeout_seconds\":60,\"queue\":\"default\",\"priority\":0,\"cache_ttl\":300,\"cache_key\":\"v1\"}'");
+        System.out.println("  enqueue --file jobs.ndjson [--batch N]   (one JSON job per line; '-' reads stdin)");
+        System.out.println("  worker start <count> [--queues a:3,b:1] [--listen [socket]] [--metrics-port N]   (--listen serves enqueue/status/list/dlq/config over a Unix socket)");
+        System.out.println("  status [--watch [seconds]]");
+        System.out.println("  list [state] [--queue name] [--after <jobId|time>] [--limit N] [--from <time>] [--to <time>] [--min-attempts N] [--max-attempts N]");
+        System.out.println("  dlq list [same options as list]");
         System.out.println("  dlq retry <jobId>");
         System.out.println("  config set <key> <value>");
         System.out.println("  config get <key>");
+        System.out.println("  logs <jobId> [--follow]");
+        System.out.println("  archive run   (archive finished jobs older than retention_hours now)");
+        System.out.println("  archive query [--from <time>] [--to <time>] [--state s] [--queue name] [--id jobId] [--limit N]");
+    }
+
+    static long parseTime(String value) {
+        if (value.matches("\\d+")) return Long.parseLong(value);
+        return java.time.Instant.parse(value).toEpochMilli();
+    }
+
+    /** Builds a pending job from a parsed enqueue spec; throws IllegalArgumentException on bad input. */
+    static Job jobFromSpec(Map<String, Object> spec, long now) {
+        Object command = spec.get("command");
+        if (command == null) throw new IllegalArgumentException("Missing 'command' field");
+        Object id = spec.get("id");
+        int maxRetries;
+        try {
+            maxRetries = Integer.parseInt(String.valueOf(spec.getOrDefault("max_retries", "3")));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid max_retries: " + spec.get("max_retries"));
+        }
+        long runAt = now;
+        if (spec.get("run_at") != null) {
+            try {
+                runAt = parseTime(String.valueOf(spec.get("run_at")));
+            } catch (Exception e) {
+                throw new IllegalArgumentException("invalid run_at (ISO-8601 instant or epoch millis): " + spec.get("run_at"));
+            }
+        }
+        Integer timeout = null;
+        if (spec.get("timeout_seconds") != null) {
+            try {
+                timeout = Integer.parseInt(String.valueOf(spec.get("timeout_seconds")));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid timeout_seconds: " + spec.get("timeout_seconds"));
+            }
+            if (timeout < 0) throw new IllegalArgumentException("timeout_seconds must be >= 0 (0 means no limit)");
+        }
+        String queue = spec.get("queue") == null ? Job.DEFAULT_QUEUE : QueueScheduler.checkName(String.valueOf(spec.get("queue")));
+        int priority;
+        try {
+            priority = Integer.parseInt(String.valueOf(spec.getOrDefault("priority", "0")));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid priority: " + spec.get("priority"));
+        }
+        Integer cacheTtl = null;
+        if (spec.get("cache_ttl") != null) {
+            try {
+                cacheTtl = Integer.parseInt(String.valueOf(spec.get("cache_ttl")));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid cache_ttl: " + spec.get("cache_ttl"));
+            }
+            if (cacheTtl < 1) throw new IllegalArgumentException("cache_ttl must be >= 1 (seconds)");
+        }
+        String cacheKey = spec.get("cache_key") == null ? null : String.valueOf(spec.get("cache_key"));
+        if (cacheKey != null && cacheTtl == null) throw new IllegalArgumentException("cache_key needs cache_ttl");
+        String jobId = id == null ? java.util.UUID.randomUUID().toString() : String.valueOf(id);
+        return new Job(jobId, String.valueOf(command), "pending", 0, maxRetries, now, now, runAt, null, timeout, queue, priority,
+                cacheTtl, cacheKey);
+    }
+
+    /**
+     * enqueue --file <path> | - [--batch N]: streams newline-delimited job specs into the store,
+     * one transaction per N jobs. Bad lines are reported and skipped; duplicate ids are ignored.
+     */
+    static void bulkEnqueue(String[] args) throws Exception {
+        String source = "-".equals(args[1]) ? "-" : (args.length >= 3 ? args[2] : null);
+        if (source == null) { System.err.println("enqueue --file requires a path"); return; }
+        int batch = 5000;
+        for (int i = 1; i < args.length - 1; i++) {
+            if ("--batch".equals(args[i])) {
+                try { batch = Math.max(1, Integer.parseInt(args[i + 1])); } catch (NumberFormatException e) { System.err.println("invalid batch size"); return; }
+            }
+        }
+        JobStore s = new JobStore(DB_PATH);
+        long started = System.nanoTime();
+        long lines = 0, parsed = 0, inserted = 0, invalid = 0;
+        List<Job> chunk = new ArrayList<>(batch);
+        try (BufferedReader in = "-".equals(source)
+                ? new BufferedReader(new InputStreamReader(System.in), 1 << 16)
+                : Files.newBufferedReader(Paths.get(source))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines++;
+                if (line.isBlank()) continue;
+                try {
+                    chunk.add(jobFromSpec(Json.parseObject(line), Job.nowMillis()));
+                    parsed++;
+                } catch (IllegalArgumentException e) {
+                    invalid++;
+                    System.err.println("line " + lines + ": " + e.getMessage());
+                    continue;
+                }
+                if (chunk.size() >= batch) {
+                    inserted += s.insertJobs(chunk);
+                    chunk.clear();
+                }
+            }
+        }
+        if (!chunk.isEmpty()) inserted += s.insertJobs(chunk);
+        double secs = (System.nanoTime() - started) / 1e9;
+        System.out.printf("Enqueued %d jobs (%d duplicate ids skipped, %d invalid lines) in %.2fs, %.0f jobs/s%n",
+                inserted, parsed - inserted, invalid, secs, inserted / Math.max(secs, 1e-9));
+    }
+
+    /**
+     * Parses the list filters from args[from..]: --queue name, --after <id|time>, --limit N,
+     * --from/--to <time> on created_at and --min-attempts/--max-attempts N.
+     */
+    static JobQuery listQuery(String[] args, int from, String state, JobStore s) throws SQLException {
+        JobQuery q = new JobQuery(state);
+        for (int i = from; i < args.length; i++) {
+            String flag = args[i];
+            if (i + 1 >= args.length) throw new IllegalArgumentException(flag + " requires a value");
+            String v = args[++i];
+            try {
+                switch (flag) {
+                    case "--after": {
+                        Optional<Job> anchor = s.findJob(v);
+                        if (anchor.isPresent()) {
+                            q.afterCreatedAt = anchor.get().createdAt;
+                            q.afterId = anchor.get().id;
+                        } else {
+                            q.afterCreatedAt = parseTime(v);
+                        }
+                        break;
+                    }
+                    case "--queue": q.queue = v; break;
+                    case "--limit": q.limit = Math.max(0, Integer.parseInt(v)); break;
+                    case "--from": q.createdFrom = parseTime(v); break;
+                    case "--to": q.createdTo = parseTime(v); break;
+                    case "--min-attempts": q.minAttempts = Integer.parseInt(v); break;
+                    case "--max-attempts": q.maxAttempts = Integer.parseInt(v); break;
+                    default: throw new IllegalArgumentException("unknown option " + flag);
+                }
+            } catch (NumberFormatException | java.time.format.DateTimeParseException e) {
+                throw new IllegalArgumentException("invalid " + flag + " value (job id, ISO-8601 instant, epoch millis or number): " + v);
+            }
+        }
+        return q;
+    }
+
+    /**
+     * Writes matching jobs as NDJSON while they are read. When --limit cuts the listing short,
+     * the --after value for the next page goes to stderr so stdout stays plain NDJSON.
+     */
+    static void printJobs(JobStore s, JobQuery q, PrintStream out, PrintStream err) throws Exception {
+        int limit = q.limit;
+        // one extra row tells whether another page exists
+        if (limit > 0) q.limit = limit + 1;
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, Charset.defaultCharset()), 1 << 16);
+        JsonWriter json = new JsonWriter(w);
+        long[] printed = {0};
+        String[] last = {null};
+        boolean[] more = {false};
+        s.scan(q, job -> {
+            if (limit > 0 && printed[0] == limit) {
+                more[0] = true;
+                return false;
+            }
+            try {
+                job.writeJson(json);
+                w.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            last[0] = job.id;
+            // stop early once nobody is reading, e.g. piped into head or a daemon client that left
+            return ++printed[0] % 1024 != 0 || !out.checkError();
+        });
+        w.flush();
+        if (more[0]) err.println("more jobs follow; next page: --after " + last[0]);
+    }
+
+    /** Commands a running daemon can answer; everything else always runs in this JVM. */
+    static boolean forwardable(String[] args) {
+        switch (args[0]) {
+            case "status": case "list": case "dlq": case "config":
+                return true;
+            case "enqueue":
+                return args.length >= 2 && !"--file".equals(args[1]) && !"-".equals(args[1]);
+            default:
+                return false;
+        }
     }
 
     public static void main(String[] args) throws Exception {
@@ -23,36 +225,21 @@ public class Main {
             return;
         }
         String cmd = args[0];
+        if (forwardable(args)) {
+            Integer code = DaemonClient.tryForward(Paths.get(SOCKET_PATH), args, System.out, System.err);
+            if (code != null) {
+                if (code != 0) System.exit(code);
+                return;
+            }
+        }
 
         switch (cmd) {
             case "enqueue": {
-                if (args.length < 2) {
-                    System.err.println("enqueue requires a JSON arg");
-                    return;
-                }
-                String jobJson = args[1];
-                var mapper = new java.util.HashMap<String,String>();
-                String j = jobJson.trim();
-                j = j.replaceAll("^\\{","").replaceAll("\\}$","");
-                for (String part : j.split(",")) {
-                    String[] kv = part.split(":",2);
-                    if (kv.length<2) continue;
-                    String k = kv[0].trim().replaceAll("^\"|\"$","");
-                    String v = kv[1].trim().replaceAll("^\"|\"$","");
-                    mapper.put(k,v);
-                }
-                String id = mapper.getOrDefault("id", java.util.UUID.randomUUID().toString());
-                String command = mapper.get("command");
-                if (command == null) {
-                    System.err.println("Missing 'command' field");
-                    return;
+                if (args.length >= 2 && ("--file".equals(args[1]) || "-".equals(args[1]))) {
+                    bulkEnqueue(args);
+                    break;
                 }
-                int maxRetries = Integer.parseInt(mapper.getOrDefault("max_retries","3"));
-                Job job = new Job(id, command, "pending", 0, maxRetries, Job.nowIso(), Job.nowIso(), Job.nowIso(), null);
-                JobStore s = new JobStore("queue.db");
-                boolean ok = s.insertJob(job);
-                if (ok) System.out.println("Enqueued " + id);
-                else System.out.println("Job id exists: " + id);
+                run(args, new JobStore(DB_PATH), System.out, System.err);
                 break;
             }
             case "worker": {
@@ -60,15 +247,36 @@ public class Main {
                 String sub = args[1];
                 if ("start".equals(sub)) {
                     int count = 1;
-                    if (args.length >= 3) {
-                        try { count = Integer.parseInt(args[2]); } catch (Exception e) { System.err.println("invalid count"); return; }
+                    String listen = null;
+                    int metricsPort = -1;
+                    Map<String, Integer> queues = null;
+                    for (int i = 2; i < args.length; i++) {
+                        if ("--listen".equals(args[i])) {
+                            listen = i + 1 < args.length && !args[i + 1].startsWith("--") ? args[++i] : SOCKET_PATH;
+                        } else if ("--metrics-port".equals(args[i]) && i + 1 < args.length) {
+                            try { metricsPort = Integer.parseInt(args[++i]); } catch (NumberFormatException e) { System.err.println("invalid metrics port"); return; }
+                        } else if ("--queues".equals(args[i]) && i + 1 < args.length) {
+                            try { queues = QueueScheduler.parseWeights(args[++i]); } catch (IllegalArgumentException e) { System.err.println(e.getMessage()); return; }
+                        } else {
+                            try { count = Integer.parseInt(args[i]); } catch (Exception e) { System.err.println("invalid count"); return; }
+                        }
                     }
-                    JobStore store = new JobStore("queue.db");
+                    JobStore store = new JobStore(DB_PATH);
                     ConfigStore cfg = new ConfigStore(store.conn);
                     cfg.initDefaults();
-                    WorkerManager mgr = new WorkerManager(store, cfg, count);
-                    Runtime.getRuntime().addShutdownHook(new Thread(mgr::shutdownGraceful));
+                    Log.setLevel(cfg.get("log_level", "info"));
+                    WorkerManager mgr = new WorkerManager(store, cfg, count, queues);
+                    DaemonServer daemon = listen == null ? null : new DaemonServer(Paths.get(listen), store);
+                    MetricsServer metrics = metricsPort < 0 ? null : new MetricsServer(store, metricsPort);
+                    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                        // stop taking requests first so clients fall back to the database
+                        if (daemon != null) daemon.close();
+                        mgr.shutdownGraceful();
+                        if (metrics != null) metrics.close();
+                    }));
                     mgr.start();
+                    if (daemon != null) daemon.start();
+                    if (metrics != null) metrics.start();
                     System.out.println("Workers started. Press Ctrl+C to stop.");
                     try { Thread.currentThread().join(); } catch (InterruptedException ignored) {}
                 } else {
@@ -76,76 +284,202 @@ public class Main {
                 }
                 break;
             }
-            case "status": {
-                JobStore s = new JobStore("queue.db");
-                var all = s.listByState(null);
-                long pending=0, processing=0, completed=0, dead=0;
-                for (var j : all) {
-                    switch (j.state) {
-                        case "pending": pending++; break;
-                        case "processing": processing++; break;
-                        case "completed": completed++; break;
-                        case "dead": dead++; break;
+            case "logs": {
+                if (args.length < 2) { System.err.println("logs requires jobId"); return; }
+                String jobId = args[1];
+                boolean follow = args.length >= 3 && "--follow".equals(args[2]);
+                JobStore s = new JobStore(DB_PATH);
+                ConfigStore cfg = new ConfigStore(s.conn);
+                java.nio.file.Path logDir = java.nio.file.Paths.get(cfg.get("log_dir", "logs"));
+                if (s.findJob(jobId).isEmpty()) {
+                    System.out.println("No such job");
+                    return;
+                }
+                OutputSink.LogReader log = new OutputSink.LogReader(logDir, jobId);
+                long offset = log.copy(System.out);
+                while (follow) {
+                    // read the state first: a finished job's log is complete before its row says so
+                    Optional<Job> job = s.findJob(jobId);
+                    boolean finished = job.isEmpty() || "completed".equals(job.get().state) || "dead".equals(job.get().state);
+                    long next = log.copy(System.out);
+                    if (finished && next == offset && !OutputSink.isLive(logDir, jobId)) break;
+                    offset = next;
+                    Thread.sleep(200);
+                }
+                break;
+            }
+            case "archive": {
+                String sub = args.length >= 2 ? args[1] : "";
+                JobStore s = new JobStore(DB_PATH);
+                ConfigStore cfg = new ConfigStore(s.conn);
+                cfg.initDefaults();
+                java.nio.file.Path archiveDir = Paths.get(cfg.get("archive_dir", "archive"));
+                if ("run".equals(sub)) {
+                    long retention = Long.parseLong(cfg.get("retention_hours", "168")) * 3_600_000L;
+                    if (retention <= 0) { System.err.println("retention_hours is 0, archiving is off"); return; }
+                    long n = new Archiver(s, archiveDir, retention).runOnce();
+                    System.out.println("Archived " + n + " jobs to " + archiveDir);
+                } else if ("query".equals(sub)) {
+                    Archiver.Query q = new Archiver.Query();
+                    for (int i = 2; i < args.length; i++) {
+                        String flag = args[i];
+                        if (i + 1 >= args.length) { System.err.println(flag + " requires a value"); return; }
+                        String v = args[++i];
+                        try {
+                            switch (flag) {
+                                case "--from": q.from = parseTime(v); break;
+                                case "--to": q.to = parseTime(v); break;
+                                case "--state": q.state = v; break;
+                                case "--queue": q.queue = v; break;
+                                case "--id": q.id = v; break;
+                                case "--limit": q.limit = Math.max(0, Long.parseLong(v)); break;
+                                default: System.err.println("unknown option " + flag); return;
+                            }
+                        } catch (NumberFormatException | java.time.format.DateTimeParseException e) {
+                            System.err.println("invalid " + flag + " value: " + v);
+                            return;
+                        }
                     }
+                    Writer w = new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()), 1 << 16);
+                    Archiver.query(archiveDir, q, w);
+                    w.flush();
+                } else {
+                    System.err.println("archive requires run|query");
+                }
+                break;
+            }
+            default:
+                if (forwardable(args)) {
+                    run(args, new JobStore(DB_PATH), System.out, System.err);
+                    break;
+                }
+                System.err.println("unknown command: " + cmd);
+                usage();
+        }
+    }
+
+    /**
+     * Runs one of the {@link #forwardable} commands against {@code s}. Called directly by
+     * {@link #main} and by {@link DaemonServer} on behalf of a thin client.
+     */
+    static void run(String[] args, JobStore s, PrintStream out, PrintStream err) throws Exception {
+        String cmd = args[0];
+        switch (cmd) {
+            case "enqueue": {
+                if (args.length < 2) {
+                    err.println("enqueue requires a JSON arg, --file <path> or -");
+                    return;
+                }
+                Job job;
+                try {
+                    job = jobFromSpec(Json.parseObject(args[1]), Job.nowMillis());
+                } catch (IllegalArgumentException e) {
+                    err.println(e.getMessage());
+                    return;
+                }
+                String id = job.id;
+                boolean ok = s.insertJob(job);
+                if (ok) out.println("Enqueued " + id);
+                else out.println("Job id exists: " + id);
+                break;
+            }
+            case "status": {
+                boolean watch = args.length >= 2 && "--watch".equals(args[1]);
+                long interval = 1000;
+                if (watch && args.length >= 3) {
+                    try { interval = Math.max(100, (long) (Double.parseDouble(args[2]) * 1000)); } catch (NumberFormatException e) { err.println("invalid interval"); return; }
+                }
+                if (!watch) {
+                    Map<String, Long> counts = s.countByState();
+                    for (String state : JobStore.STATES) out.println(state + ": " + counts.getOrDefault(state, 0L));
+                    ResultCache.Stats cache = s.cache.stats();
+                    out.println("cache: hits " + cache.hits + ", misses " + cache.misses + ", evictions " + cache.evictions + ", entries " + cache.entries);
+                    break;
+                }
+                // one line per refresh; stops when the output goes away (e.g. a daemon client exits)
+                while (!out.checkError()) {
+                    Map<String, Long> counts = s.countByState();
+                    StringBuilder line = new StringBuilder(Job.iso(Job.nowMillis()));
+                    for (String state : JobStore.STATES) line.append("  ").append(state).append(": ").append(counts.getOrDefault(state, 0L));
+                    out.println(line);
+                    out.flush();
+                    Thread.sleep(interval);
                 }
-                System.out.println("pending: "+pending);
-                System.out.println("processing: "+processing);
-                System.out.println("completed: "+completed);
-                System.out.println("dead: "+dead);
                 break;
             }
             case "list": {
+                int from = 1;
                 String state = null;
-                if (args.length >= 2) state = args[1];
-                JobStore s = new JobStore("queue.db");
-                List<Job> rows = s.listByState(state);
-                for (var r : rows) System.out.println(r.toString());
+                if (args.length >= 2 && !args[1].startsWith("--")) {
+                    state = args[1];
+                    from = 2;
+                }
+                JobQuery q;
+                try {
+                    q = listQuery(args, from, state, s);
+                } catch (IllegalArgumentException e) {
+                    err.println(e.getMessage());
+                    return;
+                }
+                printJobs(s, q, out, err);
                 break;
             }
             case "dlq": {
-                if (args.length < 2) { System.err.println("dlq requires list|retry"); return; }
+                if (args.length < 2) { err.println("dlq requires list|retry"); return; }
                 String sub = args[1];
-                JobStore s = new JobStore("queue.db");
                 if ("list".equals(sub)) {
-                    var dead = s.listByState("dead");
-                    for (var j : dead) System.out.println(j.toString());
+                    JobQuery q;
+                    try {
+                        q = listQuery(args, 2, "dead", s);
+                    } catch (IllegalArgumentException e) {
+                        err.println(e.getMessage());
+                        return;
+                    }
+                    printJobs(s, q, out, err);
                 } else if ("retry".equals(sub)) {
-                    if (args.length < 3) { System.err.println("dlq retry requires jobId"); return; }
+                    if (args.length < 3) { err.println("dlq retry requires jobId"); return; }
                     String jobId = args[2];
                     Optional<Job> maybe = s.getDeadJob(jobId);
                     if (maybe.isEmpty()) {
-                        System.out.println("No such job in DLQ");
+                        out.println("No such job in DLQ");
                         return;
                     }
                     s.retryDeadJob(jobId);
-                    System.out.println("Job " + jobId + " moved to pending");
+                    out.println("Job " + jobId + " moved to pending");
                 } else {
-                    System.err.println("unknown dlq sub: " + sub);
+                    err.println("unknown dlq sub: " + sub);
                 }
                 break;
             }
             case "config": {
-                if (args.length < 2) { System.err.println("config requires get|set"); return; }
+                if (args.length < 2) { err.println("config requires get|set"); return; }
                 String sub = args[1];
-                JobStore s = new JobStore("queue.db");
-                ConfigStore cfg = new ConfigStore(s.conn);
-                cfg.initDefaults();
+                // through the pool: a daemon runs this on its handler threads, which must not share s.conn
                 if ("set".equals(sub)) {
-                    if (args.length < 4) { System.err.println("config set <key> <value>"); return; }
-                    cfg.upsert(args[2], args[3]);
-                    System.out.println("Set " + args[2] + " = " + args[3]);
+                    if (args.length < 4) { err.println("config set <key> <value>"); return; }
+                    s.write(c -> {
+                        ConfigStore cfg = new ConfigStore(c);
+                        cfg.initDefaults();
+                        cfg.upsert(args[2], args[3]);
+                        return null;
+                    });
+                    out.println("Set " + args[2] + " = " + args[3]);
                 } else if ("get".equals(sub)) {
-                    if (args.length < 3) { System.err.println("config get <key>"); return; }
-                    String val = cfg.get(args[2], null);
-                    System.out.println(val == null ? "(not set)" : val);
+                    if (args.length < 3) { err.println("config get <key>"); return; }
+                    // initDefaults creates the table on a fresh file, so this is a write too
+                    String val = s.write(c -> {
+                        ConfigStore cfg = new ConfigStore(c);
+                        cfg.initDefaults();
+                        return cfg.get(args[2], null);
+                    });
+                    out.println(val == null ? "(not set)" : val);
                 } else {
-                    System.err.println("unknown config sub: " + sub);
+                    err.println("unknown config sub: " + sub);
                 }
                 break;
             }
             default:
-                System.err.println("unknown command: " + cmd);
-                usage();
+                err.println("unknown command: " + cmd);
         }
     }
 }
@@ -0,0 +1,124 @@
+package com.example.queuectl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process metrics for a worker process. Recording is lock-free: counters are LongAdders
+ * and histograms are fixed arrays of them, so workers never contend on a shared monitor.
+ * Per-worker series are looked up once and held by the worker; {@link #writePrometheus}
+ * renders everything in the Prometheus text format.
+ */
+public final class Metrics {
+    /** Upper bounds in seconds, from half a millisecond (claims) to an hour (queue wait). */
+    static final double[] BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5,
+            1, 2.5, 5, 10, 30, 60, 300, 900, 3600};
+
+    public static final class Histogram {
+        private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Histogram() {
+            for (int i = 0; i < counts.length; i++) counts[i] = new LongAdder();
+        }
+
+        public void observeNanos(long nanos) {
+            observe(nanos / 1e9);
+        }
+
+        public void observe(double seconds) {
+            int i = Arrays.binarySearch(BUCKETS, seconds);
+            counts[i >= 0 ? i : -i - 1].increment();
+            sum.add(seconds);
+        }
+    }
+
+    /** One metric name with a series per value of a single label. */
+    public static final class Family<T> {
+        final String name;
+        final String help;
+        final String type;
+        final String label;
+        private final ConcurrentHashMap<String, T> series = new ConcurrentHashMap<>();
+        private final java.util.function.Supplier<T> factory;
+
+        Family(String name, String help, String type, String label, java.util.function.Supplier<T> factory) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.label = label;
+            this.factory = factory;
+        }
+
+        public T get(String labelValue) {
+            return series.computeIfAbsent(labelValue, k -> factory.get());
+        }
+    }
+
+    public final Family<LongAdder> claimed = counter("queuectl_jobs_claimed_total", "Jobs claimed.");
+    public final Family<LongAdder> completed = counter("queuectl_jobs_completed_total", "Jobs that exited 0.");
+    public final Family<LongAdder> retried = counter("queuectl_jobs_retried_total", "Failed attempts scheduled for a retry.");
+    public final Family<LongAdder> dead = counter("queuectl_jobs_dead_total", "Jobs moved to the dead letter queue.");
+    public final Family<LongAdder> timedOut = counter("queuectl_jobs_timed_out_total", "Attempts killed for exceeding their timeout.");
+    public final Family<Histogram> claimSeconds = histogram("queuectl_claim_seconds", "Time to claim a batch of jobs, including the write lock.");
+    public final Family<Histogram> queueWaitSeconds = histogram("queuectl_queue_wait_seconds", "Time from a job becoming due to being claimed.");
+    public final Family<Histogram> execSeconds = histogram("queuectl_exec_seconds", "Job run time, from launch to exit.");
+    /** Not per worker: every JobStore write, including lock wait. */
+    public final Histogram dbWriteSeconds = new Histogram();
+
+    private static Family<LongAdder> counter(String name, String help) {
+        return new Family<>(name, help, "counter", "worker", LongAdder::new);
+    }
+
+    private static Family<Histogram> histogram(String name, String help) {
+        return new Family<>(name, help, "histogram", "worker", Histogram::new);
+    }
+
+    /** Renders all metrics; {@code depth} is the current job count per state. */
+    public void writePrometheus(Appendable out, Map<String, Long> depth) throws IOException {
+        for (Family<LongAdder> f : Arrays.asList(claimed, completed, retried, dead, timedOut)) {
+            header(out, f.name, f.help, f.type);
+            for (Map.Entry<String, LongAdder> e : new TreeMap<>(f.series).entrySet()) {
+                out.append(f.name).append("{worker=\"").append(e.getKey()).append("\"} ").append(Long.toString(e.getValue().sum())).append('\n');
+            }
+        }
+        for (Family<Histogram> f : Arrays.asList(claimSeconds, queueWaitSeconds, execSeconds)) {
+            header(out, f.name, f.help, f.type);
+            for (Map.Entry<String, Histogram> e : new TreeMap<>(f.series).entrySet()) {
+                writeHistogram(out, f.name, "worker=\"" + e.getKey() + "\",", e.getValue());
+            }
+        }
+        header(out, "queuectl_db_write_seconds", "JobStore write transactions, including the write lock wait.", "histogram");
+        writeHistogram(out, "queuectl_db_write_seconds", "", dbWriteSeconds);
+        header(out, "queuectl_jobs", "Jobs per state.", "gauge");
+        for (Map.Entry<String, Long> e : depth.entrySet()) {
+            out.append("queuectl_jobs{state=\"").append(e.getKey()).append("\"} ").append(Long.toString(e.getValue())).append('\n');
+        }
+        header(out, "queuectl_log_dropped_total", "Log lines dropped because the log queue was full.", "counter");
+        out.append("queuectl_log_dropped_total ").append(Long.toString(Log.DROPPED.sum())).append('\n');
+    }
+
+    private static void header(Appendable out, String name, String help, String type) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    // labels is either empty or ends with a comma, ready for le="..."
+    private static void writeHistogram(Appendable out, String name, String labels, Histogram h) throws IOException {
+        long cumulative = 0;
+        for (int i = 0; i < h.counts.length; i++) {
+            cumulative += h.counts[i].sum();
+            String le = i < BUCKETS.length ? Double.toString(BUCKETS[i]) : "+Inf";
+            out.append(name).append("_bucket{").append(labels).append("le=\"").append(le).append("\"} ")
+                    .append(Long.toString(cumulative)).append('\n');
+        }
+        String plain = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        out.append(name).append("_sum").append(plain).append(' ').append(Double.toString(h.sum.sum())).append('\n');
+        out.append(name).append("_count").append(plain).append(' ').append(Long.toString(cumulative)).append('\n');
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.queuectl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/** Serves {@link Metrics} as Prometheus text on http://127.0.0.1:port/metrics. */
+public class MetricsServer {
+    private final JobStore store;
+    private final HttpServer server;
+
+    public MetricsServer(JobStore store, int port) throws IOException {
+        this.store = store;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this::handle);
+    }
+
+    public void start() {
+        server.start();
+        Log.info("Metrics on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/metrics");
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            StringBuilder sb = new StringBuilder(8192);
+            int status = 200;
+            try {
+                store.metrics.writePrometheus(sb, store.countByState());
+            } catch (Exception e) {
+                sb.setLength(0);
+                sb.append("error: ").append(e).append('\n');
+                status = 500;
+            }
+            byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            ex.sendResponseHeaders(status, body.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    public void close() {
+        server.stop(0);
+    }
+}
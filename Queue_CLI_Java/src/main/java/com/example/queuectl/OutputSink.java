@@ -0,0 +1,295 @@
+package com.example.queuectl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Captures one attempt's output without holding it in memory. The child writes straight
+ * into {@code <logDir>/<id>.log.part}; {@link #finish()} then streams that file once through
+ * a reusable buffer, appending it as a new gzip member to {@code <id>.log.gz} while keeping
+ * only a bounded head and tail for the jobs table.
+ *
+ * The live file is renamed away before it is compressed, so a {@code logs --follow} reader
+ * sees each byte either in the .part file or in the .gz file, never in both.
+ */
+public class OutputSink {
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    private final Path part;
+    private final Path gz;
+    private final Path closing;
+    private final String jobId;
+    private final int headBytes;
+    private final int tailBytes;
+
+    public OutputSink(Path logDir, String jobId, int attempt, int headBytes, int tailBytes) throws IOException {
+        Files.createDirectories(logDir);
+        this.jobId = jobId;
+        this.part = partFile(logDir, jobId);
+        this.gz = logFile(logDir, jobId);
+        this.closing = logDir.resolve(fileName(jobId) + ".log.closing");
+        this.headBytes = headBytes;
+        this.tailBytes = tailBytes;
+        String header = "=== attempt " + attempt + " started " + Job.iso(Job.nowMillis()) + " ===\n";
+        Files.write(part, header.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Path partFile(Path logDir, String jobId) {
+        return logDir.resolve(fileName(jobId) + ".log.part");
+    }
+
+    public static Path logFile(Path logDir, String jobId) {
+        return logDir.resolve(fileName(jobId) + ".log.gz");
+    }
+
+    /**
+     * Job ids are free-form, so they are escaped into a file name that stays inside the log
+     * directory and is distinct per id: bytes outside A-Z a-z 0-9 _ - and non-leading dots
+     * become %XX. Names too long for a file system end in a hash of the full id instead.
+     */
+    static String fileName(String jobId) {
+        StringBuilder sb = new StringBuilder(jobId.length());
+        byte[] bytes = jobId.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            boolean plain = (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9')
+                    || b == '_' || b == '-' || (b == '.' && i > 0);
+            if (plain) {
+                sb.append((char) b);
+            } else {
+                sb.append('%').append(Character.toUpperCase(Character.forDigit(b >> 4, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(b & 0xf, 16)));
+            }
+        }
+        if (sb.length() <= 200) return sb.toString();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder hashed = new StringBuilder(sb.substring(0, 120)).append('~');
+            for (byte d : digest) hashed.append(Character.forDigit((d >> 4) & 0xf, 16)).append(Character.forDigit(d & 0xf, 16));
+            return hashed.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE has SHA-256
+        }
+    }
+
+    /** The live log file the running attempt appends to. */
+    public Path liveFile() {
+        return part;
+    }
+
+    /** Points the child's stdout and stderr at the live log file. */
+    public void attach(ProcessBuilder pb) {
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.appendTo(part.toFile()));
+    }
+
+    /** Compresses the attempt into the job's log and returns its head and tail, trimmed. */
+    public String finish() throws IOException {
+        byte[] buf = BUFFER.get();
+        byte[] head = new byte[headBytes];
+        byte[] tail = new byte[tailBytes];
+        int headLen = 0;
+        long total = 0;
+        Files.move(part, closing, StandardCopyOption.ATOMIC_MOVE);
+        try (InputStream in = Files.newInputStream(closing);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz, StandardOpenOption.CREATE, StandardOpenOption.APPEND), buf.length)) {
+            int n;
+            // skip our own header line when building the summary
+            boolean inHeader = true;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+                int off = 0;
+                if (inHeader) {
+                    while (off < n && buf[off] != '\n') off++;
+                    if (off < n) {
+                        off++;
+                        inHeader = false;
+                    }
+                }
+                for (int i = off; i < n; i++, total++) {
+                    if (headLen < headBytes) {
+                        head[headLen++] = buf[i];
+                    } else if (tailBytes > 0) {
+                        tail[(int) ((total - headBytes) % tailBytes)] = buf[i];
+                    }
+                }
+            }
+        } finally {
+            Files.deleteIfExists(closing);
+        }
+        return summarize(head, headLen, tail, total);
+    }
+
+    /**
+     * Reads a job's log for {@code logs [--follow]}: finished attempts from the .gz file, then
+     * the running attempt's .part file. It remembers how far it got in both, so repeated
+     * {@link #copy} calls only read what was added since the last one. Attempts are appended
+     * to the .gz file as whole gzip members, so decompression resumes at the first member
+     * not yet read in full instead of at the start of the file.
+     */
+    public static final class LogReader {
+        private final Path gz;
+        private final Path part;
+        // compressed length of the members read in full, and their uncompressed length
+        private long gzRead;
+        private long gzBytes;
+        // bytes written to the caller so far
+        private long offset;
+
+        public LogReader(Path logDir, String jobId) {
+            this.gz = logFile(logDir, jobId);
+            this.part = partFile(logDir, jobId);
+        }
+
+        /** Writes whatever was added since the last call to {@code out}; returns the total written. */
+        public long copy(OutputStream out) throws IOException {
+            byte[] buf = BUFFER.get();
+            long gzSize = size(gz);
+            if (gzSize > gzRead) {
+                long[] pos = {gzBytes};
+                try (InputStream raw = Files.newInputStream(gz)) {
+                    raw.skipNBytes(gzRead);
+                    InputStream members = new GZIPInputStream(new BoundedInput(raw, gzSize - gzRead), buf.length);
+                    pump(members, out, offset, pos, buf);
+                } catch (EOFException | ZipException e) {
+                    // an attempt is being appended right now; the rest shows up on the next call
+                    offset = Math.max(offset, pos[0]);
+                    out.flush();
+                    return offset;
+                }
+                gzRead = gzSize;
+                gzBytes = pos[0];
+                offset = Math.max(offset, pos[0]);
+            }
+            try (FileChannel ch = FileChannel.open(part, StandardOpenOption.READ)) {
+                // a .part opened after its attempt was appended to .gz belongs to the next
+                // attempt, and its bytes come after that member; read .gz first next time
+                if (size(gz) == gzRead) {
+                    // everything in .gz has been written, so offset - gzBytes is our place in .part
+                    long[] pos = {offset};
+                    pump(Channels.newInputStream(ch.position(offset - gzBytes)), out, offset, pos, buf);
+                    offset = pos[0];
+                }
+            } catch (NoSuchFileException ignored) {
+            }
+            out.flush();
+            return offset;
+        }
+
+        private static long size(Path file) throws IOException {
+            try {
+                return Files.size(file);
+            } catch (NoSuchFileException e) {
+                return 0;
+            }
+        }
+    }
+
+    /** Ends a stream after {@code limit} bytes, so GZIPInputStream stops at a member boundary. */
+    private static final class BoundedInput extends java.io.FilterInputStream {
+        private long left;
+
+        BoundedInput(InputStream in, long limit) {
+            super(in);
+            this.left = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (left <= 0) return -1;
+            int b = in.read();
+            if (b >= 0) left--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (left <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, left));
+            if (n > 0) left -= n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), left);
+        }
+    }
+
+    private static void pump(InputStream in, OutputStream out, long from, long[] pos, byte[] buf) throws IOException {
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            long start = pos[0];
+            pos[0] += n;
+            if (pos[0] <= from) continue;
+            int skip = (int) Math.max(0, from - start);
+            out.write(buf, skip, n - skip);
+        }
+    }
+
+    public static boolean isLive(Path logDir, String jobId) {
+        return Files.exists(partFile(logDir, jobId)) || Files.exists(logDir.resolve(fileName(jobId) + ".log.closing"));
+    }
+
+    /** Decodes head and tail as UTF-8; malformed bytes become U+FFFD. */
+    private String summarize(byte[] head, int headLen, byte[] tail, long total) {
+        int tailLen = (int) Math.min(tailBytes, total - headLen);
+        long omitted = total - headLen - tailLen;
+        // tail is a ring buffer; the oldest byte sits right after the last one written
+        byte[] ordered = new byte[tailLen];
+        if (tailLen > 0) {
+            int start = (int) ((total - headBytes) % tailBytes);
+            if (tailLen < tailBytes) {
+                System.arraycopy(tail, 0, ordered, 0, tailLen);
+            } else {
+                System.arraycopy(tail, start, ordered, 0, tailBytes - start);
+                System.arraycopy(tail, 0, ordered, tailBytes - start, start);
+            }
+        }
+        if (omitted == 0) {
+            // nothing cut out: head and tail are one run of bytes, so decode them together
+            byte[] all = new byte[headLen + tailLen];
+            System.arraycopy(head, 0, all, 0, headLen);
+            System.arraycopy(ordered, 0, all, headLen, tailLen);
+            return new String(all, StandardCharsets.UTF_8).trim();
+        }
+        // the cuts can fall inside a character; drop its pieces rather than show U+FFFD
+        StringBuilder sb = new StringBuilder(new String(head, 0, charEnd(head, headLen), StandardCharsets.UTF_8));
+        sb.append("\n...[").append(omitted).append(" bytes omitted, see: queuectl logs ").append(jobId).append("]...\n");
+        int from = charStart(ordered);
+        sb.append(new String(ordered, from, tailLen - from, StandardCharsets.UTF_8));
+        return sb.toString().trim();
+    }
+
+    // length of b[0, len) without a UTF-8 sequence cut short at its end
+    static int charEnd(byte[] b, int len) {
+        int i = len - 1;
+        while (i >= 0 && len - i < 4 && (b[i] & 0xc0) == 0x80) i--;
+        if (i < 0) return len;
+        int lead = b[i] & 0xff;
+        int need = lead >= 0xf0 ? 4 : lead >= 0xe0 ? 3 : lead >= 0xc0 ? 2 : 1;
+        return len - i < need ? i : len;
+    }
+
+    // index of the first byte of b that is not the continuation of a cut-off sequence
+    static int charStart(byte[] b) {
+        int i = 0;
+        while (i < b.length && i < 3 && (b[i] & 0xc0) == 0x80) i++;
+        return i;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.queuectl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * A long-lived non-login bash that runs one job after another for a single worker, so a job
+ * no longer pays for a fork/exec of bash and a pass over the profile files. Each command is
+ * eval'd in its own subshell with stdin from /dev/null and output appended to the attempt's
+ * live log, which keeps cd, exports and exit from leaking into the next job. The shell's
+ * stdout carries nothing but a "&lt;nonce&gt; &lt;status&gt;" line after each job.
+ *
+ * The shell is replaced after {@code maxJobs} jobs, and whenever a job times out, dies from
+ * a signal or takes the shell down with it.
+ */
+final class PersistentShell implements AutoCloseable {
+    private final int maxJobs;
+    private Process proc;
+    private BufferedWriter in;
+    private BufferedReader out;
+    private int jobs;
+
+    PersistentShell(int maxJobs) {
+        this.maxJobs = Math.max(1, maxJobs);
+    }
+
+    /** Runs {@code command} to completion; {@code timeoutMillis} &lt;= 0 means no limit. */
+    ExecResult run(String command, OutputSink sink, long timeoutMillis) throws IOException {
+        String nonce = UUID.randomUUID().toString();
+        String frame = "( eval " + quote(command) + " ) >>" + quote(sink.liveFile().toString())
+                + " 2>&1 </dev/null; printf '%s %d\\n' " + nonce + " $?\n";
+        int rc = -1;
+        boolean timedOut;
+        try {
+            if (proc == null || jobs >= maxJobs) start();
+            jobs++;
+            in.write(frame);
+            in.flush();
+            JobWatchdog.Watch watch = JobWatchdog.watchChildren(proc, timeoutMillis);
+            try {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    if (line.startsWith(nonce + " ")) {
+                        rc = Integer.parseInt(line.substring(nonce.length() + 1));
+                        break;
+                    }
+                }
+            } finally {
+                timedOut = watch.cancel();
+            }
+            if (rc < 0) throw new IOException("persistent shell exited while running the job");
+        } catch (IOException e) {
+            close();
+            sink.finish();
+            throw e;
+        }
+        // a killed job may have left the shell in a state we cannot see; start clean
+        if (timedOut || rc >= 128) close();
+        return new ExecResult(rc, sink.finish(), timedOut);
+    }
+
+    private void start() throws IOException {
+        close();
+        ProcessBuilder pb = new ProcessBuilder("bash", "--noprofile", "--norc", "-s");
+        pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        proc = pb.start();
+        in = new BufferedWriter(new OutputStreamWriter(proc.getOutputStream(), StandardCharsets.UTF_8));
+        out = new BufferedReader(new InputStreamReader(proc.getInputStream(), StandardCharsets.UTF_8));
+        jobs = 0;
+    }
+
+    // single-quoted, so the command reaches eval byte for byte however it is written
+    private static String quote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
+    @Override
+    public void close() {
+        if (proc == null) return;
+        // EOF on stdin ends an idle shell; destroy covers one that is not idle
+        try { in.close(); } catch (IOException ignored) {}
+        try { out.close(); } catch (IOException ignored) {}
+        proc.destroy();
+        proc = null;
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.queuectl;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which queue the workers of this process claim from next. Queues take turns by
+ * smooth weighted round-robin: every pick adds each queue's weight to its credit, the queue
+ * with the most credit is served and pays back the sum of the weights. With a:3,b:1 that
+ * gives a, a, b, a, ... so a burst in one queue delays another by a bounded number of picks.
+ * Within a queue the highest priority with a due job, found by a read with
+ * {@link JobStore#topDuePriority(String)}, is claimed first, so an idle queue never takes the
+ * write lock. A queue with nothing due passes its turn to the next in line, so workers never
+ * sit idle while any of their queues has work.
+ *
+ * Without explicit weights every queue with pending jobs is served with weight 1. The list
+ * of queues is re-read at most every 100ms, and at once when every known queue is empty.
+ */
+public class QueueScheduler {
+    private static final long REFRESH_MILLIS = 100;
+
+    private final JobStore store;
+    // null: serve whatever queues have pending jobs
+    private final Map<String, Integer> configured;
+    private String[] names = new String[0];
+    private int[] weights = new int[0];
+    private int[] credit = new int[0];
+    private long refreshedAt;
+
+    public QueueScheduler(JobStore store, Map<String, Integer> weights) {
+        this.store = store;
+        this.configured = weights == null || weights.isEmpty() ? null : new LinkedHashMap<>(weights);
+        if (configured != null) use(new ArrayList<>(configured.keySet()));
+    }
+
+    /** Parses {@code --queues a:3,b:1}; a name without a weight gets 1. */
+    public static Map<String, Integer> parseWeights(String spec) {
+        Map<String, Integer> out = new LinkedHashMap<>();
+        for (String part : spec.split(",")) {
+            String p = part.trim();
+            if (p.isEmpty()) continue;
+            int colon = p.lastIndexOf(':');
+            String name = colon < 0 ? p : p.substring(0, colon);
+            int weight;
+            try {
+                weight = colon < 0 ? 1 : Integer.parseInt(p.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid weight in --queues: " + p);
+            }
+            if (weight < 1) throw new IllegalArgumentException("queue weights must be >= 1: " + p);
+            out.put(checkName(name), weight);
+        }
+        if (out.isEmpty()) throw new IllegalArgumentException("--queues needs at least one queue");
+        return out;
+    }
+
+    /** Queue names end up in --queues specs and log lines, so keep them to a plain alphabet. */
+    public static String checkName(String name) {
+        if (!name.matches("[A-Za-z0-9._-]{1,64}")) {
+            throw new IllegalArgumentException("queue names are 1-64 characters of A-Z a-z 0-9 . _ -: " + name);
+        }
+        return name;
+    }
+
+    /** The queues served, with their weights; for the startup log line. */
+    public synchronized String describe() {
+        if (configured == null) return "all";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(names[i]).append(':').append(weights[i]);
+        }
+        return sb.toString();
+    }
+
+    /** Claims up to {@code n} jobs from the queue whose turn it is, or the next one with work. */
+    public List<Job> claim(String owner, int n) throws SQLException {
+        if (configured == null && Job.nowMillis() - refreshedAt() >= REFRESH_MILLIS) refresh();
+        List<Job> got = claimInTurn(owner, n);
+        if (got.isEmpty() && configured == null && refresh()) got = claimInTurn(owner, n);
+        return got;
+    }
+
+    private List<Job> claimInTurn(String owner, int n) throws SQLException {
+        for (String queue : nextTurn()) {
+            Integer priority;
+            // another claimer may empty the level between the read and the claim; look again
+            while ((priority = store.topDuePriority(queue)) != null) {
+                List<Job> got = store.claimPendingJobs(owner, queue, priority, n);
+                if (!got.isEmpty()) return got;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /** Advances the round-robin one pick; returns the picked queue followed by the others by credit. */
+    private synchronized List<String> nextTurn() {
+        if (names.length == 0) return Collections.emptyList();
+        int total = 0;
+        int best = 0;
+        for (int i = 0; i < names.length; i++) {
+            credit[i] += weights[i];
+            total += weights[i];
+            if (credit[i] > credit[best]) best = i;
+        }
+        credit[best] -= total;
+        List<Integer> order = new ArrayList<>(names.length);
+        for (int i = 0; i < names.length; i++) if (i != best) order.add(i);
+        order.sort((a, b) -> Integer.compare(credit[b], credit[a]));
+        List<String> out = new ArrayList<>(names.length);
+        out.add(names[best]);
+        for (int i : order) out.add(names[i]);
+        return out;
+    }
+
+    private synchronized long refreshedAt() {
+        return refreshedAt;
+    }
+
+    /** Re-reads the queues that have pending jobs; true if the set changed. */
+    private boolean refresh() throws SQLException {
+        List<String> pending = store.pendingQueues();
+        synchronized (this) {
+            refreshedAt = Job.nowMillis();
+            if (pending.equals(List.of(names))) return false;
+            use(pending);
+            return true;
+        }
+    }
+
+    private synchronized void use(List<String> queues) {
+        Map<String, Integer> oldCredit = new LinkedHashMap<>();
+        for (int i = 0; i < names.length; i++) oldCredit.put(names[i], credit[i]);
+        names = queues.toArray(new String[0]);
+        weights = new int[names.length];
+        credit = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            weights[i] = configured == null ? 1 : configured.get(names[i]);
+            // a queue that stays keeps its place in the rotation
+            credit[i] = oldCredit.getOrDefault(names[i], 0);
+        }
+    }
+}
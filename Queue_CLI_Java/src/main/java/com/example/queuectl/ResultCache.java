@@ -0,0 +1,258 @@
+package com.example.queuectl;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outputs of successful jobs enqueued with cache_ttl, keyed by a SHA-256 of the command and
+ * cache_key, so a later job with the same key completes with the stored output instead of
+ * running. Lookups go to a small in-process LRU first, then to the result_cache table, which
+ * is shared by every process on the file and survives restarts. An entry is used while it is
+ * younger than both the TTL it was stored with and the TTL of the job asking for it.
+ *
+ * The table is bounded by cache_max_entries: each store drops expired rows, then the least
+ * recently used ones over the limit. Hits in the in-process tier do not touch last_used_at,
+ * so that order is approximate. Hit, miss and eviction counts are added to cache_stats at
+ * most once a second and on {@link #flush}; a crash loses the last second of them.
+ */
+public class ResultCache {
+    private static final long FLUSH_MILLIS = 1000;
+
+    private final JobStore store;
+    private int memoryEntries = 1024;
+    private int maxEntries = 10000;
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > memoryEntries;
+        }
+    };
+    // counts not yet added to cache_stats
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long flushedAt = Job.nowMillis();
+
+    private static final class Entry {
+        final String output;
+        final long createdAt;
+        final long expiresAt;
+
+        Entry(String output, long createdAt, long expiresAt) {
+            this.output = output;
+            this.createdAt = createdAt;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean usableFor(Job job, long now) {
+            return now < expiresAt && now - createdAt < job.cacheTtl * 1000L;
+        }
+    }
+
+    /** Totals for status: the persisted counts plus this process's unflushed ones. */
+    public static final class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final long entries;
+
+        Stats(long hits, long misses, long evictions, long entries) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entries = entries;
+        }
+    }
+
+    ResultCache(JobStore store) {
+        this.store = store;
+    }
+
+    /** Sizes of the in-process tier and of the result_cache table. */
+    public synchronized void configure(int memoryEntries, int maxEntries) {
+        this.memoryEntries = Math.max(0, memoryEntries);
+        this.maxEntries = Math.max(1, maxEntries);
+        memory.clear();
+    }
+
+    static String key(Job job) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(job.command.getBytes(StandardCharsets.UTF_8));
+            // NUL keeps "ab"+"c" apart from "a"+"bc"; no cache_key and an empty one are the same
+            md.update((byte) 0);
+            if (job.cacheKey != null) md.update(job.cacheKey.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(64);
+            for (byte b : md.digest()) sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE has SHA-256
+        }
+    }
+
+    /** The stored output for {@code job}'s command and cache key, or null if there is no usable entry. */
+    public String lookup(Job job) throws SQLException {
+        String key = key(job);
+        long now = Job.nowMillis();
+        Entry e;
+        synchronized (this) {
+            e = memory.get(key);
+            if (e != null && !e.usableFor(job, now)) {
+                if (now >= e.expiresAt) memory.remove(key);
+                e = null;
+            }
+        }
+        if (e == null) {
+            Entry stored = store.read(c -> {
+                try (PreparedStatement p = c.prepareStatement("SELECT output, created_at, expires_at FROM result_cache WHERE key = ?")) {
+                    p.setString(1, key);
+                    ResultSet rs = p.executeQuery();
+                    return rs.next() ? new Entry(rs.getString(1), rs.getLong(2), rs.getLong(3)) : null;
+                }
+            });
+            if (stored != null && stored.usableFor(job, now)) {
+                e = stored;
+                store.write(c -> {
+                    try (PreparedStatement p = c.prepareStatement("UPDATE result_cache SET last_used_at = ? WHERE key = ?")) {
+                        p.setLong(1, now);
+                        p.setString(2, key);
+                        return p.executeUpdate();
+                    }
+                });
+            }
+        }
+        synchronized (this) {
+            if (e != null) {
+                memory.put(key, e);
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+        maybeFlush(now);
+        return e == null ? null : e.output;
+    }
+
+    /** Stores the output of a successful run of {@code job} for its cache_ttl, then trims the table. */
+    public void put(Job job, String output) throws SQLException {
+        String key = key(job);
+        long now = Job.nowMillis();
+        Entry e = new Entry(output, now, now + job.cacheTtl * 1000L);
+        int limit;
+        synchronized (this) {
+            memory.put(key, e);
+            limit = maxEntries;
+        }
+        int evicted = store.write(c -> {
+            c.setAutoCommit(false);
+            try {
+                try (PreparedStatement p = c.prepareStatement("INSERT OR REPLACE INTO result_cache(key, output, created_at, expires_at, last_used_at) VALUES (?,?,?,?,?)")) {
+                    p.setString(1, key);
+                    p.setString(2, output);
+                    p.setLong(3, now);
+                    p.setLong(4, e.expiresAt);
+                    p.setLong(5, now);
+                    p.execute();
+                }
+                int n;
+                try (PreparedStatement p = c.prepareStatement("DELETE FROM result_cache WHERE expires_at <= ?")) {
+                    p.setLong(1, now);
+                    n = p.executeUpdate();
+                }
+                try (PreparedStatement p = c.prepareStatement("DELETE FROM result_cache WHERE key IN (SELECT key FROM result_cache " +
+                        "ORDER BY last_used_at LIMIT max(0, (SELECT count(*) FROM result_cache) - ?))")) {
+                    p.setInt(1, limit);
+                    n += p.executeUpdate();
+                }
+                c.commit();
+                return n;
+            } catch (SQLException ex) {
+                c.rollback();
+                throw ex;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        });
+        synchronized (this) {
+            evictions += evicted;
+        }
+        maybeFlush(now);
+    }
+
+    /** Counts a lookup that failed with an error as a miss; the caller runs the job instead. */
+    public synchronized void countMiss() {
+        misses++;
+    }
+
+    private void maybeFlush(long now) {
+        synchronized (this) {
+            if (now - flushedAt < FLUSH_MILLIS) return;
+        }
+        try {
+            flush();
+        } catch (SQLException e) {
+            // the counts were put back; the lookup or store itself succeeded, so keep its result
+        }
+    }
+
+    /** Adds this process's counts to cache_stats. */
+    public void flush() throws SQLException {
+        long h, m, ev;
+        synchronized (this) {
+            h = hits;
+            m = misses;
+            ev = evictions;
+            hits = misses = evictions = 0;
+            flushedAt = Job.nowMillis();
+        }
+        if (h == 0 && m == 0 && ev == 0) return;
+        try {
+            store.write(c -> {
+                try (PreparedStatement p = c.prepareStatement("UPDATE cache_stats SET n = n + ? WHERE name = ?")) {
+                    p.setLong(1, h);
+                    p.setString(2, "hits");
+                    p.addBatch();
+                    p.setLong(1, m);
+                    p.setString(2, "misses");
+                    p.addBatch();
+                    p.setLong(1, ev);
+                    p.setString(2, "evictions");
+                    p.addBatch();
+                    return p.executeBatch();
+                }
+            });
+        } catch (SQLException e) {
+            // put them back for the next flush
+            synchronized (this) {
+                hits += h;
+                misses += m;
+                evictions += ev;
+            }
+            throw e;
+        }
+    }
+
+    public Stats stats() throws SQLException {
+        Map<String, Long> counts = store.read(c -> {
+            Map<String, Long> out = new LinkedHashMap<>();
+            try (Statement s = c.createStatement()) {
+                ResultSet rs = s.executeQuery("SELECT name, n FROM cache_stats");
+                while (rs.next()) out.put(rs.getString(1), rs.getLong(2));
+                rs = s.executeQuery("SELECT count(*) FROM result_cache");
+                out.put("entries", rs.next() ? rs.getLong(1) : 0L);
+            }
+            return out;
+        });
+        synchronized (this) {
+            return new Stats(counts.getOrDefault("hits", 0L) + hits, counts.getOrDefault("misses", 0L) + misses,
+                    counts.getOrDefault("evictions", 0L) + evictions, counts.getOrDefault("entries", 0L));
+        }
+    }
+}
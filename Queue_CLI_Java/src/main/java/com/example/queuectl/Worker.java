@@ -1,21 +1,75 @@
 package com.example.queuectl;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.SQLException;
-import java.util.Optional;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Worker implements Runnable {
+    // upper bound on an idle wait in case a wakeup is missed (e.g. the ChangeWatcher died)
+    private static final long IDLE_TIMEOUT_MS = 5000;
     private final JobStore store;
     private final ConfigStore config;
     private final int idx;
+    // lease owner of this worker's claims: the process's host:pid, shared by all its workers
+    private final String workerId;
+    // null runs each job on this thread; otherwise this worker is only a claim loop feeding the engine
+    private final AsyncExecutionEngine engine;
+    // shared by the workers of a process, so queue weights hold across all of them
+    private final QueueScheduler queues;
+    private final Deque<Job> batch = new ArrayDeque<>();
     private final AtomicBoolean running = new AtomicBoolean(true);
+    private final LongAdder claimed;
+    private final LongAdder completed;
+    private final LongAdder retried;
+    private final LongAdder dead;
+    private final LongAdder timedOut;
+    private final Metrics.Histogram claimSeconds;
+    private final Metrics.Histogram queueWaitSeconds;
+    private final Metrics.Histogram execSeconds;
+    private int backoffBase;
+    private Path logDir;
+    private int headBytes;
+    private int tailBytes;
+    private int defaultTimeoutSeconds;
+    // login (bash -lc), plain (bash -c) or persistent
+    private String execShell;
+    // only with exec_shell=persistent in blocking mode
+    private PersistentShell shell;
 
     public Worker(int idx, JobStore store, ConfigStore config) {
+        this(idx, store, config, null);
+    }
+
+    public Worker(int idx, JobStore store, ConfigStore config, AsyncExecutionEngine engine) {
+        this(idx, store, config, engine, new QueueScheduler(store, null));
+    }
+
+    public Worker(int idx, JobStore store, ConfigStore config, AsyncExecutionEngine engine, QueueScheduler queues) {
         this.idx = idx;
         this.store = store;
         this.config = config;
+        this.engine = engine;
+        this.queues = queues;
+        this.workerId = processOwner();
+        String label = Integer.toString(idx);
+        Metrics m = store.metrics;
+        this.claimed = m.claimed.get(label);
+        this.completed = m.completed.get(label);
+        this.retried = m.retried.get(label);
+        this.dead = m.dead.get(label);
+        this.timedOut = m.timedOut.get(label);
+        this.claimSeconds = m.claimSeconds.get(label);
+        this.queueWaitSeconds = m.queueWaitSeconds.get(label);
+        this.execSeconds = m.execSeconds.get(label);
     }
 
     public void shutdown() {
@@ -25,63 +79,217 @@ public class Worker implements Runnable {
     @Override
     public void run() {
         try {
-            int backoffBase = Integer.parseInt(config.get("backoff_base","2"));
-            System.out.println("[worker-"+idx+"] started backoff_base="+backoffBase+" pid="+ProcessHandle.current().pid());
+            backoffBase = Integer.parseInt(config.get("backoff_base","2"));
+            int batchSize = Math.max(1, Integer.parseInt(config.get("claim_batch_size","1")));
+            logDir = Paths.get(config.get("log_dir", "logs"));
+            headBytes = Integer.parseInt(config.get("output_head_bytes", "4096"));
+            tailBytes = Integer.parseInt(config.get("output_tail_bytes", "4096"));
+            defaultTimeoutSeconds = Integer.parseInt(config.get("job_timeout_seconds", "0"));
+            execShell = config.get("exec_shell", "login");
+            if (!execShell.equals("login") && !execShell.equals("plain") && !execShell.equals("persistent")) {
+                Log.warn("[worker-"+idx+"] unknown exec_shell " + execShell + ", using login");
+                execShell = "login";
+            }
+            if (execShell.equals("persistent") && (engine != null || isWindows())) {
+                // the async engine hands processes to onExit() and has no thread to drive a shell
+                Log.warn("[worker-"+idx+"] exec_shell=persistent needs exec_mode=blocking on a Unix host, using plain");
+                execShell = "plain";
+            }
+            if (execShell.equals("persistent")) {
+                shell = new PersistentShell(Integer.parseInt(config.get("shell_recycle_jobs", "1000")));
+            }
+            Log.info("[worker-"+idx+"] started backoff_base="+backoffBase+" claim_batch_size="+batchSize
+                    +" mode="+(engine == null ? "blocking" : "async max_in_flight="+engine.maxInFlight())+" shell="+execShell+" queues="+queues.describe()+" owner="+workerId);
             while (running.get()) {
-                Optional<Job> maybe = store.claimPendingJob();
-                if (maybe.isEmpty()) {
-                    Thread.sleep(800);
-                    continue;
+                if (batch.isEmpty()) {
+                    int wanted = engine == null ? batchSize : engine.reserve(batchSize, 500);
+                    if (wanted == 0) continue;
+                    long seen = store.wakeup.generation();
+                    long claimedAt = Job.nowMillis();
+                    long claimStart = System.nanoTime();
+                    batch.addAll(queues.claim(workerId, wanted));
+                    claimSeconds.observeNanos(System.nanoTime() - claimStart);
+                    claimed.add(batch.size());
+                    for (Job j : batch) queueWaitSeconds.observe(Math.max(0, claimedAt - j.nextRunAt) / 1000.0);
+                    if (engine != null) engine.unreserve(wanted - batch.size());
+                    if (batch.isEmpty()) {
+                        store.wakeup.await(seen, store.schedule.waitMillis(claimedAt, IDLE_TIMEOUT_MS));
+                        continue;
+                    }
                 }
-                Job job = maybe.get();
-                System.out.println("[worker-"+idx+"] executing job " + job.id + " attempt=" + job.attempts + " cmd=" + job.command);
-                ProcessBuilder pb = new ProcessBuilder();
-                if (System.getProperty("os.name").toLowerCase().contains("win")) {
-                    pb.command("cmd.exe", "/c", job.command);
-                } else {
-                    pb.command("bash", "-lc", job.command);
+                Job job = batch.poll();
+                if (job.cacheTtl != null) {
+                    String cached;
+                    try {
+                        cached = store.cache.lookup(job);
+                    } catch (SQLException e) {
+                        // like a failed put: the cache is an optimisation, so just run the job
+                        Log.warn("[worker-"+idx+"] cache lookup for job " + job.id + " failed, running it: " + e);
+                        store.cache.countMiss();
+                        cached = null;
+                    }
+                    if (cached != null) {
+                        if (engine != null) engine.unreserve(1);
+                        store.markCompleted(job, workerId, cached);
+                        completed.increment();
+                        Log.info("[worker-"+idx+"] job " + job.id + " completed from cache");
+                        if (Log.enabled(Log.Level.DEBUG)) Log.debug("[worker-"+idx+"] job " + job.id + " output: " + cached);
+                        continue;
+                    }
                 }
-                pb.redirectErrorStream(true);
+                if (Log.enabled(Log.Level.DEBUG)) Log.debug("[worker-"+idx+"] executing job " + job.id + " attempt=" + job.attempts + " cmd=" + job.command);
+                ProcessBuilder pb = shell == null ? processFor(job, execShell) : null;
+                long timeoutMillis = timeoutSeconds(job) * 1000L;
+                long started = System.nanoTime();
+                OutputSink sink;
                 try {
-                    Process proc = pb.start();
-                    StringBuilder output = new StringBuilder();
-                    try (BufferedReader br = new BufferedReader(new InputStreamReader(proc.getInputStream()))) {
-                        String line;
-                        while ((line = br.readLine()) != null) {
-                            output.append(line).append("\n");
-                        }
-                    }
-                    int rc = proc.waitFor();
-                    String outStr = output.toString().trim();
-                    if (rc == 0) {
-                        store.markCompleted(job.id, outStr);
-                        System.out.println("[worker-"+idx+"] job " + job.id + " completed: " + outStr);
-                    } else {
-                        if (job.attempts >= job.maxRetries) {
-                            store.markDead(job.id, outStr.isEmpty() ? ("rc="+rc) : outStr);
-                            System.out.println("[worker-"+idx+"] job " + job.id + " moved to DLQ after attempts=" + job.attempts);
-                        } else {
-                            long delay = (long) Math.pow(backoffBase, job.attempts);
-                            store.markFailedRetry(job.id, outStr.isEmpty() ? ("rc="+rc) : outStr, delay);
-                            System.out.println("[worker-"+idx+"] job " + job.id + " failed rc=" + rc + ", retrying after " + delay + "s");
+                    sink = new OutputSink(logDir, job.id, job.attempts, headBytes, tailBytes);
+                } catch (IOException ex) {
+                    // the job never reaches the engine, so hand its slot back
+                    if (engine != null) engine.unreserve(1);
+                    finish(job, started, null, ex);
+                    continue;
+                }
+                if (engine != null) {
+                    engine.launch(pb, sink, timeoutMillis, (result, error) -> {
+                        try {
+                            finish(job, started, result, error);
+                        } catch (SQLException e) {
+                            Log.warn("[worker-"+idx+"] could not record the outcome of job " + job.id, e);
                         }
-                    }
+                    });
+                    continue;
+                }
+                ExecResult result = null;
+                Exception error = null;
+                try {
+                    result = shell != null ? shell.run(job.command, sink, timeoutMillis) : runBlocking(pb, sink, timeoutMillis);
                 } catch (Exception ex) {
-                    ex.printStackTrace();
-                    if (job.attempts >= job.maxRetries) {
-                        store.markDead(job.id, ex.toString());
-                        System.out.println("[worker-"+idx+"] job " + job.id + " moved to DLQ due to exception");
-                    } else {
-                        long delay = (long) Math.pow(Integer.parseInt(config.get("backoff_base","2")), job.attempts);
-                        store.markFailedRetry(job.id, ex.toString(), delay);
-                        System.out.println("[worker-"+idx+"] job " + job.id + " exception, retrying after " + delay + "s");
-                    }
+                    error = ex;
                 }
+                finish(job, started, result, error);
             }
-            System.out.println("[worker-"+idx+"] exiting");
+            releaseBatch();
+            Log.info("[worker-"+idx+"] exiting");
         } catch (SQLException | InterruptedException e) {
-            e.printStackTrace();
+            Log.error("[worker-"+idx+"] stopped", e);
+        } finally {
+            if (shell != null) shell.close();
+            // dying with claims in hand: stop renewing them so the reaper hands them out again
+            for (Job j : batch) store.forgetClaim(j.id, j.attempts);
         }
     }
-}
 
+    /** host:pid, which names this process as the lease owner of the jobs its workers claim. */
+    static String processOwner() {
+        return ProcessOwner.NAME;
+    }
+
+    // resolved on first use: the host name lookup can be slow
+    private static final class ProcessOwner {
+        static final String NAME = hostName() + ":" + ProcessHandle.current().pid();
+
+        private static String hostName() {
+            try {
+                return InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                return "localhost";
+            }
+        }
+    }
+
+    static boolean isWindows() {
+        return System.getProperty("os.name").toLowerCase().contains("win");
+    }
+
+    /** A fresh process for {@code job}: a login shell unless exec_shell is plain. */
+    static ProcessBuilder processFor(Job job, String execShell) {
+        ProcessBuilder pb = new ProcessBuilder();
+        if (isWindows()) {
+            pb.command("cmd.exe", "/c", job.command);
+        } else {
+            pb.command("bash", "plain".equals(execShell) ? "-c" : "-lc", job.command);
+        }
+        return pb;
+    }
+
+    /** The job's own limit if it has one, else job_timeout_seconds; 0 means none. */
+    private int timeoutSeconds(Job job) {
+        return job.timeoutSeconds != null ? job.timeoutSeconds : defaultTimeoutSeconds;
+    }
+
+    private static ExecResult runBlocking(ProcessBuilder pb, OutputSink sink, long timeoutMillis) throws Exception {
+        sink.attach(pb);
+        Process proc;
+        try {
+            proc = pb.start();
+        } catch (IOException e) {
+            sink.finish();
+            throw e;
+        }
+        JobWatchdog.Watch watch = JobWatchdog.watch(proc, timeoutMillis);
+        int rc = proc.waitFor();
+        boolean timedOut = watch.cancel();
+        return new ExecResult(rc, sink.finish(), timedOut);
+    }
+
+    /** Records the outcome of one attempt: completed, retried with backoff, or moved to the DLQ. */
+    private void finish(Job job, long started, ExecResult result, Throwable error) throws SQLException {
+        execSeconds.observeNanos(System.nanoTime() - started);
+        if (error != null) {
+            fail(job, error.toString(), "raised an exception", error);
+            return;
+        }
+        int rc = result.exitCode;
+        String outStr = result.output;
+        if (result.timedOut) {
+            timedOut.increment();
+            String limit = "timed out after " + timeoutSeconds(job) + "s";
+            fail(job, outStr.isEmpty() ? limit : limit + ": " + outStr, limit, null);
+        } else if (rc == 0) {
+            store.markCompleted(job, workerId, outStr);
+            completed.increment();
+            Log.info("[worker-"+idx+"] job " + job.id + " completed rc=0");
+            if (Log.enabled(Log.Level.DEBUG)) Log.debug("[worker-"+idx+"] job " + job.id + " output: " + outStr);
+            if (job.cacheTtl != null) {
+                try {
+                    store.cache.put(job, outStr);
+                } catch (SQLException e) {
+                    // the job itself is done; the next identical one just runs again
+                    Log.warn("[worker-"+idx+"] could not cache the result of job " + job.id + ": " + e);
+                }
+            }
+        } else {
+            fail(job, outStr.isEmpty() ? ("rc="+rc) : outStr, "failed rc=" + rc, null);
+        }
+    }
+
+    /**
+     * A failed attempt: retried after backoff_base^attempts seconds, or moved to the DLQ once
+     * max_retries is used up. {@code reason} becomes last_error; {@code what} is for the log.
+     */
+    private void fail(Job job, String reason, String what, Throwable error) throws SQLException {
+        String line;
+        if (job.attempts >= job.maxRetries) {
+            store.markDead(job, workerId, reason);
+            dead.increment();
+            line = "[worker-"+idx+"] job " + job.id + " " + what + ", moved to DLQ after attempts=" + job.attempts;
+        } else {
+            long delay = (long) Math.pow(backoffBase, job.attempts);
+            store.markFailedRetry(job, workerId, reason, delay);
+            retried.increment();
+            line = "[worker-"+idx+"] job " + job.id + " " + what + ", retrying after " + delay + "s";
+        }
+        if (error != null) Log.warn(line, error);
+        else Log.warn(line);
+    }
+
+    private void releaseBatch() throws SQLException {
+        if (batch.isEmpty()) return;
+        List<Job> jobs = new ArrayList<>(batch);
+        if (engine != null) engine.unreserve(jobs.size());
+        batch.clear();
+        store.releaseClaims(workerId, jobs);
+        Log.info("[worker-"+idx+"] released " + jobs.size() + " unstarted jobs");
+    }
+}
@@ -1,7 +1,9 @@
 package com.example.queuectl;
 
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 
 public class WorkerManager {
@@ -10,35 +12,95 @@ public class WorkerManager {
     private final ExecutorService executor;
     private final List<Worker> workers = new ArrayList<>();
     private final List<Future<?>> futures = new ArrayList<>();
+    private final AsyncExecutionEngine engine;
+    private ChangeWatcher watcher;
+    private LeaseKeeper leases;
+    private Archiver archiver;
 
-    public WorkerManager(JobStore store, ConfigStore config, int count) {
+    /**
+     * With exec_mode=async, {@code count} is the number of claim loops and max_in_flight
+     * bounds the child processes running at once; otherwise each worker runs one job at a time.
+     */
+    public WorkerManager(JobStore store, ConfigStore config, int count) throws SQLException {
+        this(store, config, count, null);
+    }
+
+    /** {@code queueWeights} limits the workers to those queues (see {@link QueueScheduler}); null serves all. */
+    public WorkerManager(JobStore store, ConfigStore config, int count, Map<String, Integer> queueWeights) throws SQLException {
         this.store = store;
         this.config = config;
         this.executor = Executors.newFixedThreadPool(count);
+        if ("async".equals(config.get("exec_mode", "blocking"))) {
+            this.engine = new AsyncExecutionEngine(Math.max(1, Integer.parseInt(config.get("max_in_flight", "64"))));
+        } else {
+            this.engine = null;
+        }
+        // async completions write from callback threads, so leave room beside the claim loops;
+        // the group committer needs one more
+        store.ensurePoolSize((engine == null ? count : count + 2) + 1);
+        store.setSynchronous(config.get("commit_sync", "normal"));
+        QueueScheduler queues = new QueueScheduler(store, queueWeights);
         for (int i = 0; i < count; i++) {
-            Worker w = new Worker(i+1, store, config);
+            Worker w = new Worker(i+1, store, config, engine, queues);
             workers.add(w);
         }
     }
 
-    public void start() {
+    public void start() throws SQLException {
+        long minPoll = Long.parseLong(config.get("poll_min_ms", "2"));
+        long maxPoll = Long.parseLong(config.get("poll_max_ms", "50"));
+        store.schedule.load();
+        long leaseMillis = Long.parseLong(config.get("lease_seconds", "30")) * 1000L;
+        store.setLeaseMillis(leaseMillis);
+        leases = new LeaseKeeper(store, Worker.processOwner(), leaseMillis);
+        leases.start();
+        if (!"per_job".equals(config.get("commit_mode", "batch"))) {
+            store.startGroupCommit(Integer.parseInt(config.get("commit_batch_size", "256")),
+                    Long.parseLong(config.get("commit_linger_ms", "2")));
+        }
+        store.cache.configure(Integer.parseInt(config.get("cache_memory_entries", "1024")),
+                Integer.parseInt(config.get("cache_max_entries", "10000")));
+        archiver = new Archiver(store, java.nio.file.Paths.get(config.get("archive_dir", "archive")),
+                Long.parseLong(config.get("retention_hours", "168")) * 3_600_000L);
+        archiver.start(Long.parseLong(config.get("archive_interval_seconds", "600")) * 1000L);
+        watcher = new ChangeWatcher(store, minPoll, maxPoll);
+        Thread t = new Thread(watcher, "queuectl-watcher");
+        t.setDaemon(true);
+        t.start();
         for (Worker w : workers) {
             futures.add(executor.submit(w));
         }
     }
 
     public void shutdownGraceful() {
-        System.out.println("Shutting down workers gracefully...");
+        Log.info("Shutting down workers gracefully...");
+        if (watcher != null) watcher.shutdown();
+        if (archiver != null) archiver.shutdown();
         for (Worker w : workers) {
             w.shutdown();
         }
+        store.wakeup.signal();
         executor.shutdown();
         try {
             if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
                 executor.shutdownNow();
             }
+            if (engine != null && !engine.awaitIdle(30_000)) {
+                Log.warn("Timed out waiting for in-flight jobs");
+            }
         } catch (InterruptedException e) {
             executor.shutdownNow();
         }
+        if (engine != null) engine.shutdown();
+        // everything has finished, so this commits the last state changes before exit
+        store.stopGroupCommit();
+        // renewals stop only now, so jobs finishing during shutdown keep their leases
+        if (leases != null) leases.shutdown();
+        try {
+            store.cache.flush();
+        } catch (SQLException e) {
+            Log.warn("Could not save result cache counters: " + e);
+        }
+        Log.flush(2000);
     }
 }
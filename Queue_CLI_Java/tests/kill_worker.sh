@@ -0,0 +1,45 @@
+#!/usr/bin/env bash
+# tests/kill_worker.sh
+# Lease recovery test: a worker is killed with SIGKILL in the middle of a job, and a second
+# worker process must requeue and finish that job once the lease runs out.
+# Usage (from the project root, after mvn package): ./tests/kill_worker.sh [lease_seconds]
+set -euo pipefail
+
+lease=${1:-3}
+jar="$(pwd)/target/queuectl-1.0-SNAPSHOT.jar"
+work=$(mktemp -d)
+trap 'kill -9 $first_pid $second_pid 2>/dev/null || true; rm -rf "$work"' EXIT
+first_pid=""; second_pid=""
+cd "$work"
+
+java -jar "$jar" config set lease_seconds "$lease" > /dev/null
+# first run hangs, any later run succeeds
+java -jar "$jar" enqueue "{\"id\":\"victim\",\"command\":\"if [ -e $work/ran ]; then echo recovered; else touch $work/ran; sleep 120; fi\"}"
+
+java -jar "$jar" worker start 1 > first.out 2>&1 &
+first_pid=$!
+for _ in $(seq 1 60); do
+    [ -e "$work/ran" ] && break
+    sleep 0.5
+done
+[ -e "$work/ran" ] || { echo "FAIL: first worker never started the job"; cat first.out; exit 1; }
+kill -9 $first_pid; wait $first_pid 2>/dev/null || true
+killed_at=$(date +%s)
+echo "Killed the first worker mid-job; starting a second one"
+
+java -jar "$jar" worker start 1 > second.out 2>&1 &
+second_pid=$!
+deadline=$((killed_at + lease * 3 + 15))
+while [ "$(date +%s)" -lt $deadline ]; do
+    if java -jar "$jar" list completed | grep -q '"id":"victim"'; then
+        echo "Job recovered $(( $(date +%s) - killed_at ))s after the kill (lease ${lease}s)"
+        kill -TERM $second_pid; wait $second_pid || true
+        echo "PASS"
+        exit 0
+    fi
+    sleep 1
+done
+echo "FAIL: job not recovered within the lease window"
+java -jar "$jar" list
+cat second.out
+exit 1
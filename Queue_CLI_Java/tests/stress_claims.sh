@@ -0,0 +1,43 @@
+#!/usr/bin/env bash
+# tests/stress_claims.sh
+# Concurrency stress test: many workers drain a queue whose jobs append their own id to a
+# shared log. Every id must appear exactly once, otherwise a job was claimed twice.
+# Usage (from the project root, after mvn package): ./tests/stress_claims.sh [jobs] [workers]
+set -euo pipefail
+
+jobs=${1:-2000}
+workers=${2:-16}
+jar="$(pwd)/target/queuectl-1.0-SNAPSHOT.jar"
+work=$(mktemp -d)
+trap 'kill $worker_pid 2>/dev/null || true; rm -rf "$work"' EXIT
+cd "$work"
+log="$work/claims.log"
+
+echo "Enqueueing $jobs jobs..."
+for i in $(seq 1 "$jobs"); do
+    echo "{\"id\":\"s$i\",\"command\":\"echo s$i >> $log\"}"
+done | java -jar "$jar" enqueue -
+
+echo "Starting $workers workers..."
+java -jar "$jar" worker start "$workers" > worker.out 2>&1 &
+worker_pid=$!
+
+for _ in $(seq 1 120); do
+    sleep 1
+    if java -jar "$jar" status | grep -q "^pending: 0$" && java -jar "$jar" status | grep -q "^processing: 0$"; then
+        break
+    fi
+done
+kill -TERM $worker_pid; wait $worker_pid || true
+
+lines=$(wc -l < "$log")
+unique=$(sort -u "$log" | wc -l)
+dups=$(sort "$log" | uniq -d)
+echo "runs: $lines, distinct jobs: $unique"
+if [ -n "$dups" ]; then
+    echo "FAIL: claimed more than once:"; echo "$dups"; exit 1
+fi
+if [ "$unique" -ne "$jobs" ]; then
+    echo "FAIL: expected $jobs distinct jobs"; exit 1
+fi
+echo "PASS"
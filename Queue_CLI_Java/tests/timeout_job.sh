@@ -0,0 +1,35 @@
+#!/usr/bin/env bash
+# tests/timeout_job.sh
+# Timeout test: a job that sleeps far past its timeout_seconds must be killed on each attempt,
+# retried, and moved to the DLQ once max_retries is used up, with no sleep left behind.
+# Usage (from the project root, after mvn package): ./tests/timeout_job.sh
+set -euo pipefail
+
+jar="$(pwd)/target/queuectl-1.0-SNAPSHOT.jar"
+work=$(mktemp -d)
+# a fractional duration nothing else on the host is sleeping for, so pgrep finds only ours;
+# the trailing echo keeps bash from exec-ing sleep, so it runs as a child of the shell
+nap="60.$$"
+trap 'kill -9 $worker_pid 2>/dev/null || true; pkill -9 -f "^sleep $nap\$" 2>/dev/null || true; rm -rf "$work"' EXIT
+worker_pid=""
+cd "$work"
+
+java -jar "$jar" config set backoff_base 1 > /dev/null
+java -jar "$jar" enqueue "{\"id\":\"sleeper\",\"command\":\"sleep $nap; echo woke\",\"timeout_seconds\":1,\"max_retries\":2}"
+
+java -jar "$jar" worker start 1 > worker.out 2>&1 &
+worker_pid=$!
+started_at=$(date +%s)
+while [ "$(date +%s)" -lt $((started_at + 30)) ]; do
+    java -jar "$jar" dlq list | grep -q '"id":"sleeper"' && break
+    sleep 1
+done
+kill -TERM $worker_pid; wait $worker_pid || true
+
+fail() { echo "FAIL: $1"; java -jar "$jar" list; cat worker.out; exit 1; }
+java -jar "$jar" dlq list | grep -q '"id":"sleeper".*"attempts":2' || fail "job did not reach the DLQ after 2 attempts"
+grep -q 'job sleeper timed out after 1s, retrying' worker.out || fail "first attempt was not retried"
+grep -q 'job sleeper timed out after 1s, moved to DLQ' worker.out || fail "second attempt was not moved to the DLQ"
+if pgrep -f "^sleep $nap\$" > /dev/null; then fail "orphaned sleep $nap survived the timeout"; fi
+echo "Timed out twice and moved to the DLQ in $(( $(date +%s) - started_at ))s, no orphaned child"
+echo "PASS"